@@ -1,10 +1,101 @@
 package com.om;
 
+import com.om.controller.StoreController;
+import com.om.dao.DaoFileImpl;
+import com.om.dao.DaoMappedImpl;
+import com.om.dao.DaoMemoryImpl;
+import com.om.dao.IDao;
+import com.om.dao.MutationLog;
+import com.om.server.AdmissionController;
+import com.om.server.HttpGateway;
+import com.om.server.ManagedServer;
+import com.om.server.NioServer;
+import com.om.server.RequestDispatcher;
+import com.om.server.ResponseCache;
 import com.om.server.Server;
+import com.om.service.StoreService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 
 public class Main {
     public static void main(String[] args) {
-        int port = 12345; // Default port
-        new Thread(new Server()).start();
+        int port = Integer.getInteger("server.port", 12345); // Default port
+        int backlog = Integer.getInteger("server.backlog", 1024);
+        AdmissionController admission = new AdmissionController(
+                Integer.getInteger("server.admission.maxInFlight", 2048),
+                Integer.getInteger("server.admission.read.maxConcurrent", 256),
+                Integer.getInteger("server.admission.read.maxQueued", 1024),
+                Integer.getInteger("server.admission.write.maxConcurrent", 32),
+                Integer.getInteger("server.admission.write.maxQueued", 256),
+                Long.getLong("server.admission.maxQueueWaitMs", 200));
+        ResponseCache cache = new ResponseCache(Long.getLong("server.cache.maxBytes", 64L * 1024 * 1024));
+        // One dispatcher behind every front end, so they all see the same data
+        RequestDispatcher dispatcher = new RequestDispatcher(
+                new StoreController(new StoreService(createDao())), admission, cache);
+
+        List<ManagedServer> servers = new ArrayList<>();
+        int httpPort = Integer.getInteger("server.http.port", 0); // 0 = no HTTP gateway
+        if (httpPort > 0) {
+            servers.add(new HttpGateway(httpPort, backlog, dispatcher));
+        }
+
+        if ("nio".equalsIgnoreCase(System.getProperty("server.type"))) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            int eventLoops = Integer.getInteger("server.eventLoops", Math.max(1, cores / 2));
+            int workers = Integer.getInteger("server.workers", cores * 2);
+            servers.add(new NioServer(port, eventLoops, workers, backlog, dispatcher));
+            start(servers);
+            return;
+        }
+
+        Server.ExecutionMode mode = Server.ExecutionMode.valueOf(
+                System.getProperty("server.executionMode", Server.ExecutionMode.VIRTUAL_THREADS.name()));
+        int maxConcurrentRequests = Integer.getInteger("server.maxConcurrentRequests",
+                mode == Server.ExecutionMode.PLATFORM_THREADS ? Server.DEFAULT_PLATFORM_THREADS : 10_000);
+        servers.add(new Server(port, mode, maxConcurrentRequests, backlog, dispatcher));
+        start(servers);
+    }
+
+    // "file" (default) reads and writes the data files on every call; "memory" keeps the data
+    // in memory and writes it back at most server.dao.flushMillis after a change; "log" keeps
+    // it in memory and appends every change to a mutation log, rewriting the data files on
+    // compaction and shutdown; "mapped" keeps stores and products in memory-mapped record files
+    private static IDao createDao() {
+        String type = System.getProperty("server.dao", "file");
+        long flushMillis = Long.getLong("server.dao.flushMillis", 1000);
+        return switch (type.toLowerCase(Locale.ROOT)) {
+            case "file" -> new DaoFileImpl();
+            case "memory" -> new DaoMemoryImpl(flushMillis);
+            case "log" -> new DaoMemoryImpl(new MutationLog(
+                    System.getProperty("server.dao.logDir", "src/main/resources/wal"),
+                    MutationLog.Sync.valueOf(System.getProperty("server.dao.fsync", "always").toUpperCase(Locale.ROOT)),
+                    Long.getLong("server.dao.compactBytes", 64L * 1024 * 1024)), flushMillis);
+            case "mapped" -> new DaoMappedImpl(System.getProperty("server.dao.recordDir", "src/main/resources/records"));
+            default -> throw new IllegalArgumentException("Unknown server.dao: " + type);
+        };
+    }
+
+    // On SIGTERM or Ctrl+C, drain in-flight requests and flush data files before the JVM exits
+    private static void start(List<ManagedServer> servers) {
+        long shutdownTimeoutMs = Long.getLong("server.shutdownTimeoutMs", 10_000);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println("Shutting down, draining for up to " + shutdownTimeoutMs + " ms");
+            // Stopped one after another, within one shared timeout
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shutdownTimeoutMs);
+            try {
+                for (ManagedServer server : servers) {
+                    server.stop(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            System.out.println("Server stopped");
+        }, "shutdown"));
+        for (ManagedServer server : servers) {
+            new Thread(server, server instanceof HttpGateway ? "http-gateway" : "server").start();
+        }
     }
 }
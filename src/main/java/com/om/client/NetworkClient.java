@@ -7,57 +7,97 @@ import com.om.server.Request;
 import com.om.server.Response;
 
 import java.io.*;
-import java.net.Socket;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public class NetworkClient {
     private static final String HOST = "localhost";
     private static final int PORT = 12345;
     private static final Gson gson = new GsonBuilder().create();
+    // Set -Dclient.compression=true over slow links; on a fast network deflating costs more than it saves
+    private static final boolean COMPRESSION = Boolean.getBoolean("client.compression");
+    // JSON or BINARY; binary needs a server that understands the binary preamble
+    private static final PersistentConnection.WireFormat WIRE_FORMAT =
+            PersistentConnection.WireFormat.valueOf(System.getProperty("client.wireFormat", "JSON"));
+    // Time budget sent with each request, e.g. -Dclient.deadlineMs=2000; 0 sends none and waits as long as it takes
+    private static final int DEADLINE_MS = Integer.getInteger("client.deadlineMs", 0);
+
+    // Actions that change nothing, so resending one whose reply was lost is harmless
+    private static final Set<String> READ_ACTIONS = Set.of(
+            "store/get", "store/getAll", "store/getProducts", "store/findNearest", "store/findCheapest",
+            "graph/getNodes", "graph/getNodesWithCoordinates", "graph/getEdges", "algorithm/getCurrent");
+
+    // Shared framed connection, opened on first use and reopened if the server drops it
+    private static PersistentConnection connection;
 
     public static void sendRequest(String action, Map<String, Object> body) throws IOException {
-        try (Socket socket = new Socket(HOST, PORT);
-             PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
-             BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
-
-            // Prepare headers
-            Map<String, String> headers = new HashMap<>();
-            headers.put("action", action);
-
-            // Create request object
-            Request<Map<String, Object>> request = new Request<>(headers, body);
-
-            // Convert to JSON and send
-            String jsonRequest = gson.toJson(request);
-            writer.println(jsonRequest);
-            writer.println(); // Empty line to signal end of message
-
-            // Read response
-            String responseLine;
-            StringBuilder responseBuilder = new StringBuilder();
-            while ((responseLine = reader.readLine()) != null) {
-                responseBuilder.append(responseLine);
+        String responseJson;
+        try {
+            responseJson = connection().send(action, headers(), body);
+        } catch (IOException e) {
+            closeConnection();
+            // The server may have applied a write before the connection dropped, so only reads are retried
+            if (!READ_ACTIONS.contains(action)) {
+                throw e;
             }
+            // The server may have restarted since the last call - retry once on a fresh connection
+            responseJson = connection().send(action, headers(), body);
+        }
 
-            System.out.println("\n📨 Server Response:");
-            String responseJson = responseBuilder.toString();
-            System.out.println(responseJson);
-
-            // Pretty print nearest store details if action is 'store/findNearest'
-            if (action.equals("store/findNearest")) {
-                try {
-                    Response<Store> response = gson.fromJson(responseJson, new com.google.gson.reflect.TypeToken<Response<Store>>(){}.getType());
-                    if (response.isSuccess() && response.getBody() != null) {
-                        System.out.println("\n--- Nearest Store Details ---");
-                        System.out.println(response.getBody().toString());
-                    } else {
-                        System.out.println("No store found or error: " + response.getMessage());
-                    }
-                } catch (Exception e) {
-                    System.out.println("(Could not parse nearest store details)");
+        System.out.println("\n📨 Server Response:");
+        System.out.println(responseJson);
+
+        // Pretty print nearest store details if action is 'store/findNearest'
+        if (action.equals("store/findNearest")) {
+            try {
+                Response<Store> response = gson.fromJson(responseJson, new com.google.gson.reflect.TypeToken<Response<Store>>(){}.getType());
+                if (response.isSuccess() && response.getBody() != null) {
+                    System.out.println("\n--- Nearest Store Details ---");
+                    System.out.println(response.getBody().toString());
+                } else {
+                    System.out.println("No store found or error: " + response.getMessage());
                 }
+            } catch (Exception e) {
+                System.out.println("(Could not parse nearest store details)");
+            }
+        }
+    }
+
+    /**
+     * Pipelined variant: sends without waiting on the shared connection, so a screen can
+     * issue several calls back-to-back and let them overlap on the server.
+     * The future completes with the raw JSON response.
+     */
+    public static CompletableFuture<String> sendRequestAsync(String action, Map<String, Object> body) throws IOException {
+        return connection().sendAsync(action, headers(), body);
+    }
+
+    private static Map<String, String> headers() {
+        return DEADLINE_MS > 0 ? Map.of(Request.DEADLINE_HEADER, Integer.toString(DEADLINE_MS)) : Map.of();
+    }
+
+    // Open a dedicated persistent connection, e.g. for a screen that issues many calls.
+    // With client.compression set, large responses (all stores, all edges) come back compressed and are inflated transparently
+    public static PersistentConnection openConnection() throws IOException {
+        return new PersistentConnection(HOST, PORT, WIRE_FORMAT, COMPRESSION);
+    }
+
+    private static synchronized PersistentConnection connection() throws IOException {
+        if (connection == null || !connection.isOpen()) {
+            connection = openConnection();
+        }
+        return connection;
+    }
+
+    private static synchronized void closeConnection() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (IOException ignored) {
+                // Already broken, nothing to release
             }
+            connection = null;
         }
     }
-} 
\ No newline at end of file
+}
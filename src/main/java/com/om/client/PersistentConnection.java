@@ -0,0 +1,283 @@
+package com.om.client;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.om.server.BinaryJson;
+import com.om.server.BinaryJsonWriter;
+import com.om.server.Compression;
+import com.om.server.Frames;
+import com.om.server.Request;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * A framed connection to the server that is reused for many requests,
+ * so each call costs one round trip instead of a TCP connect and teardown.
+ *
+ * Every request is tagged with a correlation id, so several requests can be in flight
+ * at once: {@link #sendAsync} returns immediately and a background reader completes
+ * each future when its response arrives, in whatever order the server answers.
+ *
+ * With compression enabled every request carries {@code accept-encoding: deflate}, and
+ * large responses arrive deflated; they are inflated here, so callers always get JSON.
+ *
+ * With {@link WireFormat#BINARY} requests and responses travel in the compact
+ * {@link BinaryJson} encoding; responses are still handed to callers as JSON text.
+ *
+ * {@link #subscribe} turns the connection into a change feed as well: events pushed by
+ * the server arrive on the reader thread alongside ordinary responses.
+ */
+public class PersistentConnection implements Closeable {
+    private static final Gson gson = new GsonBuilder().create();
+
+    public enum WireFormat {
+        JSON,
+        BINARY
+    }
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final Map<Long, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    // Change listeners by the id of the subscribe request, which the server tags each event with
+    private final Map<Long, Consumer<String>> subscribers = new ConcurrentHashMap<>();
+    // Subscription id from the server -> subscribe request id
+    private final Map<Long, Long> subscriptions = new ConcurrentHashMap<>();
+    private final boolean compression;
+    // String tables for the binary encoding, null for JSON
+    private final BinaryJson.Session binary;
+
+    public PersistentConnection(String host, int port) throws IOException {
+        this(host, port, WireFormat.JSON, false);
+    }
+
+    public PersistentConnection(String host, int port, boolean compression) throws IOException {
+        this(host, port, WireFormat.JSON, compression);
+    }
+
+    /**
+     * @param format      JSON text, or the binary encoding (needs a server that supports it)
+     * @param compression ask the server to deflate responses above its size threshold;
+     *                    worth it on slow links, not on localhost
+     */
+    public PersistentConnection(String host, int port, WireFormat format, boolean compression) throws IOException {
+        this.compression = compression;
+        this.binary = format == WireFormat.BINARY ? new BinaryJson.Session() : null;
+        this.socket = new Socket(host, port);
+        this.socket.setTcpNoDelay(true);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.write(binary == null ? Frames.FRAMED_PREAMBLE : Frames.BINARY_PREAMBLE);
+        Thread.ofVirtual().name("connection-reader").start(this::readResponses);
+    }
+
+    /**
+     * Sends one request and waits for its response.
+     *
+     * @return the raw JSON of the server response
+     */
+    public String send(String action, Map<String, Object> body) throws IOException {
+        return send(action, Map.of(), body);
+    }
+
+    /**
+     * Sends one request with extra headers, e.g. {@code fields}, and waits for its response.
+     */
+    public String send(String action, Map<String, String> headers, Map<String, Object> body) throws IOException {
+        try {
+            return sendAsync(action, headers, body).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Sends one request without waiting; the future completes with the raw JSON response.
+     * Many requests can be issued back-to-back and overlap on the server.
+     */
+    public CompletableFuture<String> sendAsync(String action, Map<String, Object> body) throws IOException {
+        return sendAsync(action, Map.of(), body);
+    }
+
+    public CompletableFuture<String> sendAsync(String action, Map<String, String> extraHeaders,
+                                               Map<String, Object> body) throws IOException {
+        return sendAsync(nextId.getAndIncrement(), action, extraHeaders, body);
+    }
+
+    private CompletableFuture<String> sendAsync(long id, String action, Map<String, String> extraHeaders,
+                                                Map<String, Object> body) throws IOException {
+        Map<String, String> headers = new HashMap<>(extraHeaders);
+        headers.put("action", action);
+        if (compression) {
+            headers.put(Compression.HEADER, Compression.DEFLATE);
+        }
+        Request<Map<String, Object>> request = new Request<>(id, headers, body);
+
+        CompletableFuture<String> future = new CompletableFuture<>();
+        inFlight.put(id, future);
+        try {
+            synchronized (out) {
+                // Binary requests are encoded under the lock so the string table follows wire order
+                Frames.writeFrame(out, encode(request));
+            }
+        } catch (IOException e) {
+            inFlight.remove(id);
+            throw e;
+        }
+        return future;
+    }
+
+    /**
+     * Subscribes to changes, e.g. with the filter {"storeIds": [1, 2]} or
+     * {"productNames": ["Milk"]}; an empty filter receives everything. Each pushed event is
+     * passed to listener as raw JSON on the reader thread, so the listener must not block;
+     * an exception it throws is logged and loses only that event.
+     * A final event with "status": "lagged" means the server dropped the subscription
+     * because the client fell behind.
+     *
+     * @return the subscription id to pass to {@link #unsubscribe}
+     */
+    public long subscribe(Map<String, Object> filter, Consumer<String> listener) throws IOException {
+        long id = nextId.getAndIncrement();
+        // Registered first: the server may push an event right behind its answer
+        subscribers.put(id, listener);
+        String response;
+        try {
+            response = sendAsync(id, "subscribe", Map.of(), filter).join();
+        } catch (CompletionException e) {
+            subscribers.remove(id);
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw e;
+        }
+        JsonObject json = JsonParser.parseString(response).getAsJsonObject();
+        if (!json.get("success").getAsBoolean()) {
+            subscribers.remove(id);
+            throw new IOException(json.get("message").getAsString());
+        }
+        long subscription = json.getAsJsonObject("body").get("subscription").getAsLong();
+        subscriptions.put(subscription, id);
+        return subscription;
+    }
+
+    public void unsubscribe(long subscription) throws IOException {
+        Long id = subscriptions.remove(subscription);
+        if (id != null) {
+            subscribers.remove(id);
+        }
+        send("unsubscribe", Map.of("subscription", subscription));
+    }
+
+    private byte[] encode(Request<Map<String, Object>> request) throws IOException {
+        if (binary == null) {
+            return gson.toJson(request).getBytes(StandardCharsets.UTF_8);
+        }
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        BinaryJsonWriter writer = binary.writer(payload);
+        gson.toJson(request, request.getClass(), writer);
+        writer.flush();
+        return payload.toByteArray();
+    }
+
+    private void readResponses() {
+        IOException failure = new EOFException("Server closed the connection");
+        try {
+            byte[] frame;
+            // Responses are streamed in chunks; reassemble whole messages of any size
+            while ((frame = Frames.readFrame(in, Integer.MAX_VALUE)) != null) {
+                if (Compression.isCompressed(frame)) {
+                    frame = Compression.inflate(frame);
+                }
+                String json;
+                Long id;
+                if (binary == null) {
+                    json = new String(frame, StandardCharsets.UTF_8);
+                    id = readId(json);
+                } else {
+                    JsonObject response = JsonParser.parseReader(binary.reader(frame)).getAsJsonObject();
+                    json = response.toString();
+                    id = response.has("id") ? response.get("id").getAsLong() : null;
+                }
+                CompletableFuture<String> future = id == null ? null : inFlight.remove(id);
+                if (future != null) {
+                    future.complete(json);
+                } else if (id != null) {
+                    Consumer<String> listener = subscribers.get(id);
+                    if (listener != null) {
+                        deliver(listener, json);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            // A response that doesn't parse; the connection can't be trusted to be in step any more
+            failure = new IOException("Unreadable response from the server: " + e.getMessage(), e);
+        } finally {
+            // Close first so later sends fail fast, then fail whatever is still waiting
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Already closed
+            }
+            for (Long id : inFlight.keySet()) {
+                CompletableFuture<String> future = inFlight.remove(id);
+                if (future != null) {
+                    future.completeExceptionally(failure);
+                }
+            }
+        }
+    }
+
+    // A failing listener loses its event, not the connection and every other caller's response
+    private static void deliver(Consumer<String> listener, String event) {
+        try {
+            listener.accept(event);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // The server writes the id first, so a large body never needs to be parsed here
+    private static Long readId(String json) throws IOException {
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("id") && reader.peek() == JsonToken.NUMBER) {
+                    return reader.nextLong();
+                }
+                reader.skipValue();
+            }
+            return null;
+        } catch (IllegalStateException e) {
+            return null;
+        }
+    }
+
+    public boolean isOpen() {
+        return !socket.isClosed();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
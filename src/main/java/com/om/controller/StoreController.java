@@ -1,12 +1,16 @@
 package com.om.controller;
 
+import com.om.dm.Page;
 import com.om.dm.Store;
 import com.om.dm.Product;
+import com.om.service.ChangeEvent;
 import com.om.service.StoreService;
 import com.om.algorithm.Edge;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * Handles client requests related to store operations,
@@ -15,19 +19,35 @@ import java.util.Map;
 public class StoreController {
 
     private final StoreService storeService;
+    // Bumped after every mutation, so anything computed from an older version is known to be stale
+    private final AtomicLong dataVersion = new AtomicLong();
 
     public StoreController(StoreService storeService) {
         this.storeService = storeService;
     }
 
+    public long dataVersion() {
+        return dataVersion.get();
+    }
+
+    // Runs a mutation and bumps the data version once it is done, or has failed part way.
+    // Bumping afterwards means a read that overlapped the mutation is tagged with the old version
+    private void mutate(Runnable mutation) {
+        try {
+            mutation.run();
+        } finally {
+            dataVersion.incrementAndGet();
+        }
+    }
+
     // Save a new store
     public void save(Store store) {
-        storeService.addStore(store.getName(), store.getLocationId());
+        mutate(() -> storeService.addStore(store.getName(), store.getLocationId()));
     }
 
     // Delete a store by its ID
     public void delete(Store store) {
-        storeService.deleteStore(store.getId());
+        mutate(() -> storeService.deleteStore(store.getId()));
     }
 
     // Get a store by its ID
@@ -40,26 +60,35 @@ public class StoreController {
         return storeService.getAllStores();
     }
 
+    // Get one page of stores, continuing after the given cursor
+    public Page<Store> getAllPage(String cursor, Integer limit) {
+        return storeService.getStoresPage(cursor, limit);
+    }
+
     // Update store details
     public void update(Store store) {
-        storeService.updateStore(store);
+        mutate(() -> storeService.updateStore(store));
     }
 
     // Product operations
     public void addProduct(int storeId, Product product) {
-        storeService.addProductToStore(storeId, product);
+        mutate(() -> storeService.addProductToStore(storeId, product));
     }
 
     public void removeProduct(int storeId, String productName) {
-        storeService.removeProductFromStore(storeId, productName);
+        mutate(() -> storeService.removeProductFromStore(storeId, productName));
     }
 
     public List<Product> getProducts(int storeId) {
         return storeService.getProductsByStoreId(storeId);
     }
 
+    public Page<Product> getProductsPage(int storeId, String cursor, Integer limit) {
+        return storeService.getProductsPage(storeId, cursor, limit);
+    }
+
     public void updateProduct(int storeId, Product product) {
-        storeService.updateProductInStore(storeId, product);
+        mutate(() -> storeService.updateProductInStore(storeId, product));
     }
 
     public Store findNearestStoreWithProduct(String location, String productName) {
@@ -72,15 +101,15 @@ public class StoreController {
 
     // Graph management operations
     public void addNode(String nodeName, double x, double y) {
-        storeService.addNode(nodeName, x, y);
+        mutate(() -> storeService.addNode(nodeName, x, y));
     }
 
     public void addEdge(String from, String to, double weight) {
-        storeService.addEdge(from, to, weight);
+        mutate(() -> storeService.addEdge(from, to, weight));
     }
 
     public void removeNode(String nodeName) {
-        storeService.removeNode(nodeName);
+        mutate(() -> storeService.removeNode(nodeName));
     }
 
     public List<String> getAllNodes() {
@@ -88,7 +117,7 @@ public class StoreController {
     }
 
     public void removeEdge(String from, String to) {
-        storeService.removeEdge(from, to);
+        mutate(() -> storeService.removeEdge(from, to));
     }
 
     public Map<String, List<Edge>> getAllEdges() {
@@ -100,16 +129,25 @@ public class StoreController {
     }
 
     public void clearAll() {
-        storeService.clear();
+        mutate(storeService::clear);
+    }
+
+    public void addChangeListener(Consumer<ChangeEvent> listener) {
+        storeService.addChangeListener(listener);
+    }
+
+    // Persist pending writes, e.g. before the server exits
+    public void flush() {
+        storeService.flush();
     }
 
     // Algorithm switching operations
     public void useAStarAlgorithm() {
-        storeService.useAStarAlgorithm();
+        mutate(storeService::useAStarAlgorithm);
     }
 
     public void useDijkstraAlgorithm() {
-        storeService.useDijkstraAlgorithm();
+        mutate(storeService::useDijkstraAlgorithm);
     }
 
     public String getCurrentAlgorithm() {
@@ -0,0 +1,46 @@
+package com.om.dao;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.io.File;
+
+/**
+ * JFR events for reading and writing the DAO's data files. The file size is only looked
+ * up when a recording actually wants the event.
+ */
+@Category({"BuyNearMe", "DAO"})
+abstract class DaoFileEvent extends Event {
+    @Label("File")
+    String file;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+    // Ends the event and commits it if a recording wants it
+    void finish(String path) {
+        end();
+        if (shouldCommit()) {
+            file = path;
+            bytes = new File(path).length();
+            commit();
+        }
+    }
+
+    @Name("com.om.DaoLoad")
+    @Label("DAO File Load")
+    @Description("A data file read and deserialized")
+    static class Load extends DaoFileEvent {
+    }
+
+    @Name("com.om.DaoSave")
+    @Label("DAO File Save")
+    @Description("A data file serialized and written")
+    static class Save extends DaoFileEvent {
+    }
+}
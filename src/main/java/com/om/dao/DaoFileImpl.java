@@ -3,24 +3,36 @@ package com.om.dao;
 import com.om.algorithm.*;
 import com.om.dm.Product;
 import com.om.dm.Store;
+import com.om.util.Deadline;
 
 import java.io.*;
 import java.util.*;
 
+// Reads the data files on every call and rewrites them on every change. Changes are
+// synchronized so concurrent load-modify-save cycles don't lose each other's updates;
+// reads need no lock, as files are replaced atomically (see DataFiles). Product lookups
+// find their candidate stores in an index built at startup and updated after each save
 public class DaoFileImpl implements IDao {
 
     private final String FILE_NAME;
+    private final ProductIndex index = new ProductIndex();
 
     public DaoFileImpl() {
-        this.FILE_NAME = "src/main/resources/datasource.txt";
+        this(DataFiles.STORES_FILE);
     }
 
+    /**
+     * @throws IllegalStateException if a data file is damaged, so the server fails at startup
+     *                               rather than on the first request
+     */
     public DaoFileImpl(String filePath) {
         this.FILE_NAME = filePath;
+        DataFiles.readStores(FILE_NAME).values().forEach(index::put);
+        DataFiles.read(GRAPH_FILE_NAME);
     }
 
     @Override
-    public void addStore(Store store) {
+    public synchronized void addStore(Store store) {
         Map<Integer, Store> stores = loadStoresFromFile();
         
         // Check for duplicate stores (same name and location)
@@ -37,6 +49,7 @@ public class DaoFileImpl implements IDao {
         store.setId(newId);
         stores.put(newId, store);
         saveStoresToFile(stores);
+        index.put(store);
     }
 
     @Override
@@ -50,25 +63,27 @@ public class DaoFileImpl implements IDao {
     }
 
     @Override
-    public void updateStore(Store store) {
+    public synchronized void updateStore(Store store) {
         Map<Integer, Store> stores = loadStoresFromFile();
         if (stores.containsKey(store.getId())) {
             stores.put(store.getId(), store);
             saveStoresToFile(stores);
+            index.put(store);
         }
     }
 
     @Override
-    public void deleteStore(int id) {
+    public synchronized void deleteStore(int id) {
         Map<Integer, Store> stores = loadStoresFromFile();
         if (stores.containsKey(id)) {
             stores.remove(id);
             saveStoresToFile(stores);
+            index.remove(id);
         }
     }
 
     @Override
-    public void addProductToStore(int storeId, Product product) {
+    public synchronized void addProductToStore(int storeId, Product product) {
         Map<Integer, Store> stores = loadStoresFromFile();
         Store store = stores.get(storeId);
         if (store != null) {
@@ -83,17 +98,19 @@ public class DaoFileImpl implements IDao {
             store.addProduct(product);
             stores.put(storeId, store);
             saveStoresToFile(stores);
+            index.put(store);
         }
     }
 
     @Override
-    public void removeProductFromStore(int storeId, String productName) {
+    public synchronized void removeProductFromStore(int storeId, String productName) {
         Map<Integer, Store> stores = loadStoresFromFile();
         Store store = stores.get(storeId);
         if (store != null) {
             store.removeProductByName(productName);
             stores.put(storeId, store);
             saveStoresToFile(stores);
+            index.put(store);
         }
     }
 
@@ -105,7 +122,7 @@ public class DaoFileImpl implements IDao {
     }
 
     @Override
-    public void updateProductInStore(int storeId, Product product) {
+    public synchronized void updateProductInStore(int storeId, Product product) {
         Map<Integer, Store> stores = loadStoresFromFile();
         Store store = stores.get(storeId);
         if (store != null) {
@@ -119,15 +136,22 @@ public class DaoFileImpl implements IDao {
             store.setProducts(products);
             stores.put(storeId, store);
             saveStoresToFile(stores);
+            index.put(store);
         }
     }
 
     @Override
     public Store findNearestStoreWithProduct(String userLocationId, String productName, Map<String, List<Edge>> graph) {
+        Set<Integer> carrying = index.storesWith(productName).keySet();
+        if (carrying.isEmpty()) {
+            return null;
+        }
+        Map<Integer, Store> stores = loadStoresFromFile();
+
         // First check if there's a store at the current location with the product
-        for (Store store : getAllStores()) {
-            if (store.getLocationId().equals(userLocationId) && 
-                store.getProducts().stream().anyMatch(p -> p.getName().equalsIgnoreCase(productName))) {
+        for (int id : carrying) {
+            Store store = stores.get(id);
+            if (store != null && store.getLocationId().equals(userLocationId)) {
                 // Found product at current location - set empty path and zero distance
                 store.setPathToStore(Arrays.asList(userLocationId));
                 store.setDistanceToStore(0.0);
@@ -135,108 +159,63 @@ public class DaoFileImpl implements IDao {
             }
         }
 
-        IAlgoShortestPath algo = new DijkstraAlgoShortestPathImpl();
-
-        // 1. Add a virtual "SINK" node as the common destination
-        final String SINK = "SINK";
-
-        // 2. Load the graph into the algorithm
-        for (Map.Entry<String, List<Edge>> entry : graph.entrySet()) {
-            String from = entry.getKey();
-            algo.addNode(from, 0, 0);
-            for (Edge edge : entry.getValue()) {
-                algo.addNode(edge.getToNode(), 0, 0);
-                algo.addEdge(from, edge.getToNode(), edge.getWeight());
-            }
-        }
-        algo.addNode(SINK, 0, 0);
-
-        // 3. Map to track which store is located at which location node
+        // 1. Map each location node that has a store with the product to that store
         Map<String, Store> locationToStore = new HashMap<>();
-
-        // 4. Connect all stores that have the desired product to the SINK node
-        for (Store store : getAllStores()) {
-            if (!store.getLocationId().equals(userLocationId) &&  // Skip current location
-                store.getProducts().stream().anyMatch(p -> p.getName().equalsIgnoreCase(productName))) {
-                String loc = store.getLocationId();
-                algo.addEdge(loc, SINK, 0);
-                locationToStore.put(loc, store);
+        for (int id : carrying) {
+            Store store = stores.get(id); // Null if deleted since the index was read
+            if (store != null) {
+                locationToStore.put(store.getLocationId(), store);
             }
         }
 
-        // 5. Find shortest path from user location to SINK
-        PathResult result = algo.findShortestPath(userLocationId, SINK);
-
-        // 6. If no path found, return null
-        List<String> path = result.getPath();
-        if (path.isEmpty()) {
+        // 2. Search outward from the user until the first of those locations is reached.
+        // Done in-house rather than with the algorithm library so it can honour the request deadline
+        NearestSearch.Path result = NearestSearch.nearest(graph, userLocationId, locationToStore.keySet());
+        if (result == null) {
             return null;
         }
 
-        // 7. Get the store node (second-to-last node in path) and its corresponding store
-        String storeNode = path.get(path.size() - 2);
-        Store nearestStore = locationToStore.get(storeNode);
-        
-        // 8. Store the path information in the store object
-        if (nearestStore != null) {
-            // Remove the SINK node from the path
-            path.remove(path.size() - 1);
-            nearestStore.setPathToStore(path);
-            nearestStore.setDistanceToStore(result.getTotalWeight());
-        }
-        
+        // 3. Store the path information in the store object
+        List<String> path = result.nodes();
+        Store nearestStore = locationToStore.get(path.get(path.size() - 1));
+        nearestStore.setPathToStore(path);
+        nearestStore.setDistanceToStore(result.distance());
         return nearestStore;
     }
 
     @Override
     public Store findCheapestStoreWithProduct(String productName) {
-        Store cheapestStore = null;
-        double lowestPrice = Double.MAX_VALUE;
-
-        // Check all stores for the product
-        for (Store store : getAllStores()) {
-            for (Product product : store.getProducts()) {
-                if (product.getName().equalsIgnoreCase(productName)) {
-                    if (product.getPrice() < lowestPrice) {
-                        lowestPrice = product.getPrice();
-                        cheapestStore = store;
-                    }
-                    break; // Found the product in this store, no need to check other products
-                }
-            }
-        }
-        
-        return cheapestStore;
+        int cheapestStore = index.cheapest(productName);
+        return cheapestStore == -1 ? null : getStoreById(cheapestStore);
     }
 
     @Override
-    public void clearAll() {
+    public synchronized void clearAll() {
         saveStoresToFile(new HashMap<>());
+        index.clear();
         saveGraphToFile(new HashMap<>());
     }
 
-    @SuppressWarnings("unchecked")
+    // Loads are where reads spend their time, so they give up here once the request is out of time
     private Map<Integer, Store> loadStoresFromFile() {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(FILE_NAME))) {
-            return (Map<Integer, Store>) ois.readObject();
-        } catch (Exception e) {
-            return new HashMap<>();
-        }
+        Deadline.check();
+        return DataFiles.readStores(FILE_NAME);
     }
 
+    // A failed save leaves the previous file in place and fails the request
     private void saveStoresToFile(Map<Integer, Store> stores) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(FILE_NAME))) {
-            oos.writeObject(stores);
+        try {
+            DataFiles.write(FILE_NAME, stores);
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new UncheckedIOException("Cannot save " + FILE_NAME, e);
         }
     }
 
     // Graph persistence methods
-    private static final String GRAPH_FILE_NAME = "src/main/resources/graph.dat";
+    private static final String GRAPH_FILE_NAME = DataFiles.GRAPH_FILE;
 
     @Override
-    public void saveNode(String nodeName, double x, double y) {
+    public synchronized void saveNode(String nodeName, double x, double y) {
         Map<String, Object> graphData = loadGraphFromFile();
         @SuppressWarnings("unchecked")
         Map<String, double[]> nodes = (Map<String, double[]>) graphData.getOrDefault("nodes", new HashMap<>());
@@ -246,7 +225,7 @@ public class DaoFileImpl implements IDao {
     }
 
     @Override
-    public void removeNode(String nodeName) {
+    public synchronized void removeNode(String nodeName) {
         Map<String, Object> graphData = loadGraphFromFile();
         @SuppressWarnings("unchecked")
         Map<String, double[]> nodes = (Map<String, double[]>) graphData.getOrDefault("nodes", new HashMap<>());
@@ -265,7 +244,7 @@ public class DaoFileImpl implements IDao {
     }
 
     @Override
-    public void saveEdge(String from, String to, double weight) {
+    public synchronized void saveEdge(String from, String to, double weight) {
         Map<String, Object> graphData = loadGraphFromFile();
         @SuppressWarnings("unchecked")
         Map<String, List<Map<String, Object>>> edges = (Map<String, List<Map<String, Object>>>) graphData.getOrDefault("edges", new HashMap<>());
@@ -296,7 +275,7 @@ public class DaoFileImpl implements IDao {
     }
 
     @Override
-    public void removeEdge(String from, String to) {
+    public synchronized void removeEdge(String from, String to) {
         Map<String, Object> graphData = loadGraphFromFile();
         @SuppressWarnings("unchecked")
         Map<String, List<Map<String, Object>>> edges = (Map<String, List<Map<String, Object>>>) graphData.getOrDefault("edges", new HashMap<>());
@@ -355,20 +334,16 @@ public class DaoFileImpl implements IDao {
         return result;
     }
 
-    @SuppressWarnings("unchecked")
     private Map<String, Object> loadGraphFromFile() {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(GRAPH_FILE_NAME))) {
-            return (Map<String, Object>) ois.readObject();
-        } catch (Exception e) {
-            return new HashMap<>();
-        }
+        Deadline.check();
+        return DataFiles.readGraph(GRAPH_FILE_NAME);
     }
 
     private void saveGraphToFile(Map<String, Object> graphData) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(GRAPH_FILE_NAME))) {
-            oos.writeObject(graphData);
+        try {
+            DataFiles.write(GRAPH_FILE_NAME, graphData);
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new UncheckedIOException("Cannot save " + GRAPH_FILE_NAME, e);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,627 @@
+package com.om.dao;
+
+import com.om.algorithm.Edge;
+import com.om.dm.Product;
+import com.om.dm.Store;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Keeps stores and products in fixed-layout binary records in memory-mapped files, so a
+ * lookup reads a few fields from the page cache instead of deserializing every store.
+ *
+ * stores.rec holds one 48-byte record per store id: the record for id n is at a fixed
+ * offset, so no index is needed. products.rec holds 32-byte product records, chained per
+ * store in list order. Names and locations are kept once each in strings.rec, a heap of
+ * length-prefixed UTF-8 strings that records refer to by offset. A price change is
+ * written in place. Each file starts with a magic number, a format version and how much
+ * of it is in use.
+ *
+ * Writes reach the page cache immediately, so they survive a process crash;
+ * {@link #flush()} forces them to disk. A record is not updated atomically, so a power
+ * loss between flushes can leave one half-written. The graph stays in graph.dat, handled
+ * by {@link DaoFileImpl}. On first use the stores are imported from the data file.
+ * Thread-safe.
+ */
+public final class DaoMappedImpl implements IDao, AutoCloseable {
+    private static final int MAGIC = 0x424E4D52; // "BNMR"
+    private static final int VERSION = 1;
+    // Magic, version, then the bytes (strings) or records (stores, products) in use
+    private static final int HEADER_SIZE = 16;
+    private static final int USED = 8;
+    private static final int INITIAL_SIZE = 64 * 1024;
+    private static final int NONE = -1;
+
+    // Store record; id 0 marks an empty slot
+    private static final int STORE_SIZE = 48;
+    private static final int S_ID = 0;
+    private static final int S_NAME = 4;
+    private static final int S_LATITUDE = 8;
+    private static final int S_LONGITUDE = 16;
+    private static final int S_LOCATION = 24;
+    private static final int S_FIRST_PRODUCT = 28;
+    private static final int S_LAST_PRODUCT = 32;
+    private static final int S_PRODUCT_COUNT = 36;
+
+    // Product record; store id 0 marks a free slot
+    private static final int PRODUCT_SIZE = 32;
+    private static final int P_ID = 0;
+    private static final int P_STORE = 4;
+    private static final int P_PRICE = 8;
+    private static final int P_NAME = 16;
+    private static final int P_NEXT = 20;
+
+    private final RecordFile storeFile;
+    private final RecordFile productFile;
+    private final RecordFile stringFile;
+    private final DaoFileImpl graph;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // All guarded by lock; rebuilt from the files on open. Strings are only looked up here
+    // when written, to store each once; reads decode them from the mapped heap
+    private final Map<String, Integer> stringOffsets = new HashMap<>();
+    private final Deque<Integer> freeProducts = new ArrayDeque<>();
+    private final ProductIndex index = new ProductIndex();
+    private int maxStoreId;
+    private int maxProductId;
+
+    public DaoMappedImpl(String directory) {
+        this(directory, DataFiles.STORES_FILE);
+    }
+
+    /**
+     * @param storesFile data file to import the stores from when the record files are new
+     */
+    public DaoMappedImpl(String directory, String storesFile) {
+        try {
+            Path dir = Path.of(directory);
+            Files.createDirectories(dir);
+            boolean created = !Files.exists(dir.resolve("stores.rec"));
+            storeFile = new RecordFile(dir.resolve("stores.rec"));
+            productFile = new RecordFile(dir.resolve("products.rec"));
+            stringFile = new RecordFile(dir.resolve("strings.rec"));
+            graph = new DaoFileImpl(storesFile);
+            open();
+            if (created) {
+                List<Store> existing = new ArrayList<>(DataFiles.readStores(storesFile).values());
+                existing.sort(Comparator.comparingInt(Store::getId));
+                write(() -> existing.forEach(this::writeStore));
+                force();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open record files in " + directory, e);
+        }
+    }
+
+    @Override
+    public void addStore(Store store) {
+        write(() -> {
+            if (findStore(store.getName(), store.getLocationId()) != NONE) {
+                throw new IllegalArgumentException("A store with the same name and location already exists");
+            }
+            store.setId(maxStoreId + 1);
+            writeStore(store);
+        });
+    }
+
+    @Override
+    public List<Store> getAllStores() {
+        return getStoresAfter(0, Integer.MAX_VALUE);
+    }
+
+    // Records are in id order, so a page is a sequential read from afterId on
+    @Override
+    public List<Store> getStoresAfter(int afterId, int limit) {
+        return read(() -> {
+            List<Store> result = new ArrayList<>();
+            for (int id = Math.max(afterId + 1, 1); id <= maxStoreId && result.size() < limit; id++) {
+                if (isStore(id)) {
+                    result.add(readStore(id));
+                }
+            }
+            return result;
+        });
+    }
+
+    @Override
+    public Store getStoreById(int id) {
+        return read(() -> isStore(id) ? readStore(id) : null);
+    }
+
+    @Override
+    public void updateStore(Store store) {
+        write(() -> {
+            if (isStore(store.getId())) {
+                freeProducts(storeOffset(store.getId()));
+                writeStore(store);
+            }
+        });
+    }
+
+    @Override
+    public void deleteStore(int id) {
+        write(() -> {
+            if (isStore(id)) {
+                int at = storeOffset(id);
+                freeProducts(at);
+                storeFile.buffer.putInt(at + S_ID, 0);
+                index.remove(id);
+                while (maxStoreId > 0 && !isStore(maxStoreId)) {
+                    maxStoreId--;
+                }
+            }
+        });
+    }
+
+    @Override
+    public void addProductToStore(int storeId, Product product) {
+        write(() -> {
+            if (isStore(storeId)) {
+                product.setId(maxProductId + 1);
+                appendProduct(storeId, product);
+                index.put(readStore(storeId));
+            }
+        });
+    }
+
+    @Override
+    public void removeProductFromStore(int storeId, String productName) {
+        write(() -> {
+            if (!isStore(storeId)) {
+                return;
+            }
+            int at = storeOffset(storeId);
+            MappedByteBuffer stores = storeFile.buffer;
+            MappedByteBuffer products = productFile.buffer;
+            int previous = NONE;
+            int removed = 0;
+            for (int slot = stores.getInt(at + S_FIRST_PRODUCT); slot != NONE; ) {
+                int p = productOffset(slot);
+                int next = products.getInt(p + P_NEXT);
+                if (string(products.getInt(p + P_NAME)).equalsIgnoreCase(productName)) {
+                    if (previous == NONE) {
+                        stores.putInt(at + S_FIRST_PRODUCT, next);
+                    } else {
+                        products.putInt(productOffset(previous) + P_NEXT, next);
+                    }
+                    if (next == NONE) {
+                        stores.putInt(at + S_LAST_PRODUCT, previous);
+                    }
+                    freeProduct(slot);
+                    removed++;
+                } else {
+                    previous = slot;
+                }
+                slot = next;
+            }
+            stores.putInt(at + S_PRODUCT_COUNT, stores.getInt(at + S_PRODUCT_COUNT) - removed);
+            index.put(readStore(storeId));
+        });
+    }
+
+    @Override
+    public List<Product> getProductsByStoreId(int storeId) {
+        return read(() -> isStore(storeId) ? readProducts(storeOffset(storeId)) : new ArrayList<>());
+    }
+
+    // A price change is one 8-byte write; a new name is added to the string heap
+    @Override
+    public void updateProductInStore(int storeId, Product product) {
+        write(() -> {
+            if (!isStore(storeId)) {
+                return;
+            }
+            MappedByteBuffer products = productFile.buffer;
+            for (int slot = storeFile.buffer.getInt(storeOffset(storeId) + S_FIRST_PRODUCT); slot != NONE;
+                 slot = products.getInt(productOffset(slot) + P_NEXT)) {
+                int p = productOffset(slot);
+                if (products.getInt(p + P_ID) == product.getId()) {
+                    products.putInt(p + P_NAME, intern(product.getName()));
+                    products.putDouble(p + P_PRICE, product.getPrice());
+                    index.put(readStore(storeId));
+                    return;
+                }
+            }
+        });
+    }
+
+    @Override
+    public Store findNearestStoreWithProduct(String userLocationId, String productName, Map<String, List<Edge>> graph) {
+        // Candidates are read under the lock; the search itself runs without it
+        Map<String, Store> locationToStore = new HashMap<>();
+        Store here = read(() -> {
+            for (int id : index.storesWith(productName).keySet()) {
+                String location = string(storeFile.buffer.getInt(storeOffset(id) + S_LOCATION));
+                if (location.equals(userLocationId)) {
+                    return readStore(id);
+                }
+                locationToStore.put(location, readStore(id));
+            }
+            return null;
+        });
+        if (here != null) {
+            // Found product at current location - set empty path and zero distance
+            here.setPathToStore(Arrays.asList(userLocationId));
+            here.setDistanceToStore(0.0);
+            return here;
+        }
+
+        NearestSearch.Path result = NearestSearch.nearest(graph, userLocationId, locationToStore.keySet());
+        if (result == null) {
+            return null;
+        }
+        List<String> path = result.nodes();
+        Store nearestStore = locationToStore.get(path.get(path.size() - 1));
+        nearestStore.setPathToStore(path);
+        nearestStore.setDistanceToStore(result.distance());
+        return nearestStore;
+    }
+
+    @Override
+    public Store findCheapestStoreWithProduct(String productName) {
+        return read(() -> {
+            int cheapestStore = index.cheapest(productName);
+            return cheapestStore == NONE ? null : readStore(cheapestStore);
+        });
+    }
+
+    @Override
+    public void saveNode(String nodeName, double x, double y) {
+        graph.saveNode(nodeName, x, y);
+    }
+
+    @Override
+    public void removeNode(String nodeName) {
+        graph.removeNode(nodeName);
+    }
+
+    @Override
+    public void saveEdge(String from, String to, double weight) {
+        graph.saveEdge(from, to, weight);
+    }
+
+    @Override
+    public void removeEdge(String from, String to) {
+        graph.removeEdge(from, to);
+    }
+
+    @Override
+    public List<String> getAllNodes() {
+        return graph.getAllNodes();
+    }
+
+    @Override
+    public Map<String, double[]> getAllNodesWithCoordinates() {
+        return graph.getAllNodesWithCoordinates();
+    }
+
+    @Override
+    public Map<String, List<Edge>> getAllEdges() {
+        return graph.getAllEdges();
+    }
+
+    // Everything beyond a file's used mark is ignored and overwritten later, so clearing only resets the marks
+    @Override
+    public void clearAll() {
+        write(() -> {
+            storeFile.setUsed(0);
+            productFile.setUsed(0);
+            stringFile.setUsed(0);
+            stringOffsets.clear();
+            freeProducts.clear();
+            index.clear();
+            maxStoreId = 0;
+            maxProductId = 0;
+        });
+        graph.clearAll();
+    }
+
+    // Forces the mapped pages to disk
+    @Override
+    public void flush() {
+        read(() -> {
+            force();
+            return null;
+        });
+    }
+
+    @Override
+    public void close() {
+        flush();
+        write(() -> {
+            storeFile.close();
+            productFile.close();
+            stringFile.close();
+        });
+    }
+
+    private <T> T read(Supplier<T> action) {
+        lock.readLock().lock();
+        try {
+            return action.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void write(Runnable action) {
+        lock.writeLock().lock();
+        try {
+            action.run();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Rebuilds the string offsets, free list, highest ids and product index from the files
+    private void open() {
+        MappedByteBuffer heap = stringFile.buffer;
+        int end = HEADER_SIZE + (int) stringFile.used();
+        for (int at = HEADER_SIZE; at < end; ) {
+            stringOffsets.putIfAbsent(string(at), at);
+            at += 4 + heap.getInt(at);
+        }
+        for (int id = (int) storeFile.used(); id > 0; id--) {
+            if (isStore(id)) {
+                maxStoreId = id;
+                break;
+            }
+        }
+        MappedByteBuffer products = productFile.buffer;
+        for (int slot = 0; slot < productFile.used(); slot++) {
+            int p = productOffset(slot);
+            if (products.getInt(p + P_STORE) == 0) {
+                freeProducts.push(slot);
+            } else {
+                maxProductId = Math.max(maxProductId, products.getInt(p + P_ID));
+            }
+        }
+        for (int id = 1; id <= maxStoreId; id++) {
+            if (isStore(id)) {
+                index.put(readStore(id));
+            }
+        }
+    }
+
+    // Under the write lock; writes the store's fields and appends its products, keeping its id
+    private void writeStore(Store store) {
+        int id = store.getId();
+        if (id <= 0) {
+            throw new IllegalArgumentException("Store ID must be positive");
+        }
+        int name = intern(store.getName());
+        int location = intern(store.getLocationId());
+        if (id > storeFile.used()) {
+            storeFile.ensureCapacity(HEADER_SIZE + (long) id * STORE_SIZE);
+            storeFile.setUsed(id);
+        }
+        int at = storeOffset(id);
+        MappedByteBuffer stores = storeFile.buffer;
+        stores.putInt(at + S_NAME, name);
+        stores.putDouble(at + S_LATITUDE, store.getLatitude());
+        stores.putDouble(at + S_LONGITUDE, store.getLongitude());
+        stores.putInt(at + S_LOCATION, location);
+        stores.putInt(at + S_FIRST_PRODUCT, NONE);
+        stores.putInt(at + S_LAST_PRODUCT, NONE);
+        stores.putInt(at + S_PRODUCT_COUNT, 0);
+        stores.putInt(at + S_ID, id);
+        maxStoreId = Math.max(maxStoreId, id);
+        if (store.getProducts() != null) {
+            for (Product product : store.getProducts()) {
+                appendProduct(id, product);
+            }
+        }
+        index.put(store);
+    }
+
+    private Store readStore(int id) {
+        int at = storeOffset(id);
+        MappedByteBuffer stores = storeFile.buffer;
+        return new Store(id, string(stores.getInt(at + S_NAME)), stores.getDouble(at + S_LATITUDE),
+                stores.getDouble(at + S_LONGITUDE), readProducts(at), string(stores.getInt(at + S_LOCATION)));
+    }
+
+    private List<Product> readProducts(int storeAt) {
+        MappedByteBuffer products = productFile.buffer;
+        List<Product> result = new ArrayList<>(storeFile.buffer.getInt(storeAt + S_PRODUCT_COUNT));
+        for (int slot = storeFile.buffer.getInt(storeAt + S_FIRST_PRODUCT); slot != NONE;
+             slot = products.getInt(productOffset(slot) + P_NEXT)) {
+            int p = productOffset(slot);
+            result.add(new Product(products.getInt(p + P_ID), string(products.getInt(p + P_NAME)),
+                    products.getDouble(p + P_PRICE)));
+        }
+        return result;
+    }
+
+    // Under the write lock; adds product at the end of the store's chain
+    private void appendProduct(int storeId, Product product) {
+        int name = intern(product.getName());
+        int slot;
+        if (freeProducts.isEmpty()) {
+            slot = (int) productFile.used();
+            productFile.ensureCapacity(HEADER_SIZE + (long) (slot + 1) * PRODUCT_SIZE);
+            productFile.setUsed(slot + 1);
+        } else {
+            slot = freeProducts.pop();
+        }
+        int p = productOffset(slot);
+        MappedByteBuffer products = productFile.buffer;
+        products.putInt(p + P_ID, product.getId());
+        products.putDouble(p + P_PRICE, product.getPrice());
+        products.putInt(p + P_NAME, name);
+        products.putInt(p + P_NEXT, NONE);
+        products.putInt(p + P_STORE, storeId);
+
+        int at = storeOffset(storeId);
+        MappedByteBuffer stores = storeFile.buffer;
+        int last = stores.getInt(at + S_LAST_PRODUCT);
+        if (last == NONE) {
+            stores.putInt(at + S_FIRST_PRODUCT, slot);
+        } else {
+            products.putInt(productOffset(last) + P_NEXT, slot);
+        }
+        stores.putInt(at + S_LAST_PRODUCT, slot);
+        stores.putInt(at + S_PRODUCT_COUNT, stores.getInt(at + S_PRODUCT_COUNT) + 1);
+        maxProductId = Math.max(maxProductId, product.getId());
+    }
+
+    // Under the write lock; frees every product of the store at storeAt and empties its chain
+    private void freeProducts(int storeAt) {
+        MappedByteBuffer stores = storeFile.buffer;
+        MappedByteBuffer products = productFile.buffer;
+        for (int slot = stores.getInt(storeAt + S_FIRST_PRODUCT); slot != NONE; ) {
+            int next = products.getInt(productOffset(slot) + P_NEXT);
+            freeProduct(slot);
+            slot = next;
+        }
+        stores.putInt(storeAt + S_FIRST_PRODUCT, NONE);
+        stores.putInt(storeAt + S_LAST_PRODUCT, NONE);
+        stores.putInt(storeAt + S_PRODUCT_COUNT, 0);
+    }
+
+    private void freeProduct(int slot) {
+        productFile.buffer.putInt(productOffset(slot) + P_STORE, 0);
+        freeProducts.push(slot);
+    }
+
+    // The store with this name and location, or NONE; strings are stored once, so offsets are compared
+    private int findStore(String name, String locationId) {
+        Integer nameOffset = stringOffsets.get(name);
+        Integer locationOffset = stringOffsets.get(locationId);
+        if (nameOffset == null || locationOffset == null) {
+            return NONE;
+        }
+        MappedByteBuffer stores = storeFile.buffer;
+        for (int id = 1; id <= maxStoreId; id++) {
+            int at = storeOffset(id);
+            if (isStore(id) && stores.getInt(at + S_NAME) == nameOffset
+                    && stores.getInt(at + S_LOCATION) == locationOffset) {
+                return id;
+            }
+        }
+        return NONE;
+    }
+
+    private boolean isStore(int id) {
+        return id > 0 && id <= storeFile.used() && storeFile.buffer.getInt(storeOffset(id) + S_ID) == id;
+    }
+
+    private static int storeOffset(int id) {
+        return HEADER_SIZE + (id - 1) * STORE_SIZE;
+    }
+
+    private static int productOffset(int slot) {
+        return HEADER_SIZE + slot * PRODUCT_SIZE;
+    }
+
+    // Under the write lock; the heap offset of value, adding it if it is new; 0 for null
+    private int intern(String value) {
+        if (value == null) {
+            return 0;
+        }
+        Integer existing = stringOffsets.get(value);
+        if (existing != null) {
+            return existing;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int at = HEADER_SIZE + (int) stringFile.used();
+        stringFile.ensureCapacity((long) at + 4 + bytes.length);
+        stringFile.buffer.putInt(at, bytes.length);
+        stringFile.buffer.put(at + 4, bytes);
+        stringFile.setUsed(stringFile.used() + 4 + bytes.length);
+        stringOffsets.put(value, at);
+        return at;
+    }
+
+    private String string(int offset) {
+        if (offset == 0) {
+            return null;
+        }
+        MappedByteBuffer heap = stringFile.buffer;
+        byte[] bytes = new byte[heap.getInt(offset)];
+        heap.get(offset + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void force() {
+        storeFile.buffer.force();
+        productFile.buffer.force();
+        stringFile.buffer.force();
+    }
+
+    // One record file, mapped in full and remapped larger as it fills
+    private static final class RecordFile {
+        private final Path path;
+        private final FileChannel channel;
+        private MappedByteBuffer buffer;
+
+        RecordFile(Path path) throws IOException {
+            this.path = path;
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            boolean created = channel.size() == 0;
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), INITIAL_SIZE));
+            if (created) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putLong(USED, 0);
+            } else if (buffer.getInt(0) != MAGIC) {
+                throw new IllegalStateException("Record file " + path + " is not a record file or is damaged");
+            } else if (buffer.getInt(4) != VERSION) {
+                throw new IllegalStateException("Record file " + path + " has unsupported format version " + buffer.getInt(4));
+            }
+        }
+
+        long used() {
+            return buffer.getLong(USED);
+        }
+
+        void setUsed(long used) {
+            buffer.putLong(USED, used);
+        }
+
+        void ensureCapacity(long size) {
+            if (size <= buffer.capacity()) {
+                return;
+            }
+            long capacity = buffer.capacity();
+            while (capacity < size) {
+                capacity *= 2;
+            }
+            if (capacity > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Record file " + path + " is full");
+            }
+            try {
+                // Mapping past the end grows the file
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot grow record file " + path, e);
+            }
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot close record file " + path, e);
+            }
+        }
+    }
+}
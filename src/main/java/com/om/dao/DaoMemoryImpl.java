@@ -0,0 +1,575 @@
+package com.om.dao;
+
+import com.om.algorithm.Edge;
+import com.om.dm.Product;
+import com.om.dm.Store;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the stores and the graph in memory and persists changes in the background, in
+ * one of two ways.
+ *
+ * Without a {@link MutationLog} the data files are written back in the same format as
+ * {@link DaoFileImpl}. A mutation only marks the data dirty; at most flushIntervalMillis
+ * later a background thread writes a snapshot of everything changed since the last
+ * write, so a burst of mutations costs one file write. A crash loses at most the
+ * mutations of the last interval plus the write in progress.
+ *
+ * With a log every mutation is appended to it as one record before it is applied. The
+ * data files seed an empty log and are rewritten whenever the log is compacted, which
+ * includes {@link #close()}. The background thread syncs the log as its
+ * {@link MutationLog.Sync} policy asks and compacts it into a snapshot once it has grown
+ * large enough.
+ *
+ * In both modes {@link #flush()} persists synchronously and is called on shutdown. Stored
+ * objects are never changed in place: a mutation replaces the store or edge list, so a
+ * snapshot is a shallow copy that can be written without holding the lock. Callers
+ * always get copies. Thread-safe.
+ */
+public class DaoMemoryImpl implements IDao, AutoCloseable {
+    private final String storesFile;
+    private final String graphFile;
+    private final long flushIntervalMillis;
+    // Null to write the data files back instead
+    private final MutationLog log;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // All guarded by lock
+    private final NavigableMap<Integer, Store> stores = new TreeMap<>();
+    private final Map<String, double[]> nodes = new LinkedHashMap<>();
+    private final Map<String, List<Edge>> edges = new LinkedHashMap<>();
+    private final ProductIndex index = new ProductIndex();
+    private int maxProductId;
+
+    // Set under the write lock, cleared by a flush under the read lock
+    private final AtomicBoolean storesDirty = new AtomicBoolean();
+    private final AtomicBoolean graphDirty = new AtomicBoolean();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    // One flush at a time, so an older snapshot never overwrites a newer one
+    private final Object flushLock = new Object();
+    private final ScheduledThreadPoolExecutor flusher;
+    private volatile boolean closed;
+
+    public DaoMemoryImpl(long flushIntervalMillis) {
+        this(DataFiles.STORES_FILE, DataFiles.GRAPH_FILE, flushIntervalMillis, null);
+    }
+
+    public DaoMemoryImpl(MutationLog log, long flushIntervalMillis) {
+        this(DataFiles.STORES_FILE, DataFiles.GRAPH_FILE, flushIntervalMillis, log);
+    }
+
+    /**
+     * @param flushIntervalMillis how long a mutation may stay in memory only; with a log,
+     *                            how often it is synced (if its policy says so) and checked
+     *                            for compaction
+     * @param log                 null to write the data files back instead
+     */
+    public DaoMemoryImpl(String storesFile, String graphFile, long flushIntervalMillis, MutationLog log) {
+        if (flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Flush interval must be positive");
+        }
+        this.storesFile = storesFile;
+        this.graphFile = graphFile;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.log = log;
+        flusher = new ScheduledThreadPoolExecutor(1, Thread.ofPlatform().name("dao-flusher").daemon().factory());
+        flusher.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        if (log == null) {
+            load(DataFiles.readStores(storesFile), DataFiles.readGraph(graphFile));
+            return;
+        }
+        MutationLog.Snapshot snapshot = log.readSnapshot();
+        if (snapshot == null) {
+            load(DataFiles.readStores(storesFile), DataFiles.readGraph(graphFile));
+        } else {
+            load(snapshot.stores(), snapshot.graph());
+        }
+        log.replay(snapshot, this::apply);
+        if (snapshot == null) {
+            compact(); // So the log no longer depends on the data files
+        }
+        flusher.scheduleWithFixedDelay(this::maintainLog, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void addStore(Store store) {
+        write(() -> {
+            boolean isDuplicate = stores.values().stream()
+                    .anyMatch(existingStore ->
+                            existingStore.getName().equals(store.getName()) &&
+                            existingStore.getLocationId().equals(store.getLocationId()));
+            if (isDuplicate) {
+                throw new IllegalArgumentException("A store with the same name and location already exists");
+            }
+            int newId = stores.isEmpty() ? 1 : stores.lastKey() + 1;
+            store.setId(newId);
+            commit(new Mutation.StorePut(copyOf(store)));
+        });
+    }
+
+    @Override
+    public List<Store> getAllStores() {
+        return read(() -> stores.values().stream().map(DaoMemoryImpl::copyOf).toList());
+    }
+
+    @Override
+    public List<Store> getStoresAfter(int afterId, int limit) {
+        return read(() -> stores.tailMap(afterId, false).values().stream()
+                .limit(limit)
+                .map(DaoMemoryImpl::copyOf)
+                .toList());
+    }
+
+    @Override
+    public Store getStoreById(int id) {
+        return read(() -> {
+            Store store = stores.get(id);
+            return store == null ? null : copyOf(store);
+        });
+    }
+
+    @Override
+    public void updateStore(Store store) {
+        write(() -> {
+            if (stores.containsKey(store.getId())) {
+                commit(new Mutation.StorePut(copyOf(store)));
+            }
+        });
+    }
+
+    @Override
+    public void deleteStore(int id) {
+        write(() -> {
+            if (stores.containsKey(id)) {
+                commit(new Mutation.StoreDeleted(id));
+            }
+        });
+    }
+
+    @Override
+    public void addProductToStore(int storeId, Product product) {
+        write(() -> {
+            Store store = stores.get(storeId);
+            if (store != null) {
+                product.setId(maxProductId + 1);
+                Store updated = copyOf(store);
+                updated.addProduct(copyOf(product));
+                commit(new Mutation.StorePut(updated));
+            }
+        });
+    }
+
+    @Override
+    public void removeProductFromStore(int storeId, String productName) {
+        write(() -> {
+            Store store = stores.get(storeId);
+            if (store != null) {
+                Store updated = copyOf(store);
+                updated.removeProductByName(productName);
+                commit(new Mutation.StorePut(updated));
+            }
+        });
+    }
+
+    @Override
+    public List<Product> getProductsByStoreId(int storeId) {
+        return read(() -> {
+            Store store = stores.get(storeId);
+            return store != null ? copyOf(store).getProducts() : new ArrayList<>();
+        });
+    }
+
+    @Override
+    public void updateProductInStore(int storeId, Product product) {
+        write(() -> {
+            Store store = stores.get(storeId);
+            if (store != null) {
+                Store updated = copyOf(store);
+                List<Product> products = updated.getProducts();
+                for (int i = 0; i < products.size(); i++) {
+                    if (products.get(i).getId() == product.getId()) {
+                        products.set(i, copyOf(product));
+                        break;
+                    }
+                }
+                commit(new Mutation.StorePut(updated));
+            }
+        });
+    }
+
+    @Override
+    public Store findNearestStoreWithProduct(String userLocationId, String productName, Map<String, List<Edge>> graph) {
+        // Candidates are copied under the lock; the search itself runs without it
+        Map<String, Store> locationToStore = new HashMap<>();
+        Store here = read(() -> {
+            for (int id : index.storesWith(productName).keySet()) {
+                Store store = stores.get(id);
+                if (store.getLocationId().equals(userLocationId)) {
+                    return copyOf(store);
+                }
+                locationToStore.put(store.getLocationId(), store);
+            }
+            locationToStore.replaceAll((location, store) -> copyOf(store));
+            return null;
+        });
+        if (here != null) {
+            // Found product at current location - set empty path and zero distance
+            here.setPathToStore(Arrays.asList(userLocationId));
+            here.setDistanceToStore(0.0);
+            return here;
+        }
+
+        NearestSearch.Path result = NearestSearch.nearest(graph, userLocationId, locationToStore.keySet());
+        if (result == null) {
+            return null;
+        }
+        List<String> path = result.nodes();
+        Store nearestStore = locationToStore.get(path.get(path.size() - 1));
+        nearestStore.setPathToStore(path);
+        nearestStore.setDistanceToStore(result.distance());
+        return nearestStore;
+    }
+
+    @Override
+    public Store findCheapestStoreWithProduct(String productName) {
+        return read(() -> {
+            int cheapestStore = index.cheapest(productName);
+            return cheapestStore == -1 ? null : copyOf(stores.get(cheapestStore));
+        });
+    }
+
+    @Override
+    public void saveNode(String nodeName, double x, double y) {
+        write(() -> commit(new Mutation.NodeSaved(nodeName, x, y)));
+    }
+
+    @Override
+    public void removeNode(String nodeName) {
+        write(() -> commit(new Mutation.NodeRemoved(nodeName)));
+    }
+
+    @Override
+    public void saveEdge(String from, String to, double weight) {
+        write(() -> commit(new Mutation.EdgeSaved(from, to, weight)));
+    }
+
+    @Override
+    public void removeEdge(String from, String to) {
+        write(() -> commit(new Mutation.EdgeRemoved(from, to)));
+    }
+
+    @Override
+    public List<String> getAllNodes() {
+        return read(() -> new ArrayList<>(nodes.keySet()));
+    }
+
+    @Override
+    public Map<String, double[]> getAllNodesWithCoordinates() {
+        return read(() -> {
+            Map<String, double[]> result = new HashMap<>();
+            nodes.forEach((node, coordinates) -> result.put(node, coordinates.clone()));
+            return result;
+        });
+    }
+
+    @Override
+    public Map<String, List<Edge>> getAllEdges() {
+        return read(() -> {
+            Map<String, List<Edge>> result = new HashMap<>();
+            edges.forEach((node, edgeList) -> result.put(node, new ArrayList<>(edgeList)));
+            return result;
+        });
+    }
+
+    @Override
+    public void clearAll() {
+        write(() -> commit(new Mutation.Cleared()));
+    }
+
+    // Persists everything changed so far; without a log, failures are reported and retried later
+    @Override
+    public void flush() {
+        if (log != null) {
+            log.sync(log.position());
+            return;
+        }
+        synchronized (flushLock) {
+            Map<Integer, Store> storesSnapshot = null;
+            Map<String, double[]> nodesSnapshot = null;
+            Map<String, List<Edge>> edgesSnapshot = null;
+            lock.readLock().lock();
+            try {
+                if (storesDirty.getAndSet(false)) {
+                    storesSnapshot = new HashMap<>(stores);
+                }
+                if (graphDirty.getAndSet(false)) {
+                    nodesSnapshot = new HashMap<>(nodes);
+                    edgesSnapshot = new HashMap<>(edges);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            if (storesSnapshot != null) {
+                try {
+                    DataFiles.write(storesFile, storesSnapshot);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    storesDirty.set(true);
+                    scheduleFlush();
+                }
+            }
+            if (nodesSnapshot != null) {
+                try {
+                    DataFiles.write(graphFile, toGraphData(nodesSnapshot, edgesSnapshot));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    graphDirty.set(true);
+                    scheduleFlush();
+                }
+            }
+        }
+    }
+
+    // Stops the background writer and persists anything still pending
+    @Override
+    public void close() {
+        closed = true;
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        if (log != null) {
+            try {
+                compact(); // Brings the data files up to date, so other modes see the same data
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            log.close();
+        }
+    }
+
+    private <T> T read(Supplier<T> action) {
+        lock.readLock().lock();
+        try {
+            return action.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Runs action under the write lock, then waits for its log records to be synced if the policy says so
+    private void write(Runnable action) {
+        long position;
+        lock.writeLock().lock();
+        try {
+            action.run();
+            position = log == null ? 0 : log.position();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (log != null && log.sync() == MutationLog.Sync.ALWAYS) {
+            log.sync(position);
+        }
+    }
+
+    // Under the write lock: logs the mutation if there is a log, then applies it
+    private void commit(Mutation mutation) {
+        if (log != null) {
+            log.append(mutation);
+        }
+        apply(mutation);
+        if (log == null) {
+            switch (mutation) {
+                case Mutation.StorePut put -> storesDirty.set(true);
+                case Mutation.StoreDeleted deleted -> storesDirty.set(true);
+                case Mutation.Cleared cleared -> {
+                    storesDirty.set(true);
+                    graphDirty.set(true);
+                }
+                default -> graphDirty.set(true);
+            }
+            scheduleFlush();
+        }
+    }
+
+    // Under the write lock, or while loading; also replays the log
+    private void apply(Mutation mutation) {
+        switch (mutation) {
+            case Mutation.StorePut put -> putStore(put.store());
+            case Mutation.StoreDeleted deleted -> {
+                stores.remove(deleted.id());
+                index.remove(deleted.id());
+            }
+            case Mutation.NodeSaved saved -> nodes.put(saved.node(), new double[]{saved.x(), saved.y()});
+            case Mutation.NodeRemoved removed -> {
+                nodes.remove(removed.node());
+                // Also remove all edges connected to this node
+                edges.remove(removed.node());
+                edges.replaceAll((node, edgeList) -> without(edgeList, removed.node(), null));
+            }
+            case Mutation.EdgeSaved saved -> {
+                edges.put(saved.from(), with(edges.get(saved.from()), new Edge(saved.from(), saved.to(), saved.weight())));
+                edges.put(saved.to(), with(edges.get(saved.to()), new Edge(saved.to(), saved.from(), saved.weight())));
+            }
+            case Mutation.EdgeRemoved removed -> {
+                edges.computeIfPresent(removed.from(), (node, edgeList) -> without(edgeList, null, removed.to()));
+                edges.computeIfPresent(removed.to(), (node, edgeList) -> without(edgeList, null, removed.from()));
+            }
+            case Mutation.Cleared cleared -> {
+                stores.clear();
+                index.clear();
+                nodes.clear();
+                edges.clear();
+                maxProductId = 0;
+            }
+        }
+    }
+
+    private void putStore(Store store) {
+        stores.put(store.getId(), store);
+        index.put(store);
+        for (Product product : store.getProducts()) {
+            maxProductId = Math.max(maxProductId, product.getId());
+        }
+    }
+
+    private void scheduleFlush() {
+        if (!closed && flushScheduled.compareAndSet(false, true)) {
+            flusher.schedule(() -> {
+                flushScheduled.set(false);
+                flush();
+            }, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Runs on the background thread in log mode; an exception would cancel the schedule
+    private void maintainLog() {
+        try {
+            if (log.sync() == MutationLog.Sync.INTERVAL) {
+                log.sync(log.position());
+            }
+            if (log.needsCompaction()) {
+                compact();
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Writes a snapshot of the current data and drops the log records it covers. The data
+    // files are rewritten from the same copy, so they lag the log by at most one compaction
+    private void compact() {
+        long segment;
+        Map<Integer, Store> storesSnapshot;
+        Map<String, double[]> nodesSnapshot;
+        Map<String, List<Edge>> edgesSnapshot;
+        // No mutation can run under the read lock, so the new segment starts exactly at this data
+        lock.readLock().lock();
+        try {
+            segment = log.roll();
+            storesSnapshot = new HashMap<>(stores);
+            nodesSnapshot = new HashMap<>(nodes);
+            edgesSnapshot = new HashMap<>(edges);
+        } finally {
+            lock.readLock().unlock();
+        }
+        Map<String, Object> graphData = toGraphData(nodesSnapshot, edgesSnapshot);
+        log.writeSnapshot(segment, storesSnapshot, graphData);
+        try {
+            DataFiles.write(storesFile, storesSnapshot);
+            DataFiles.write(graphFile, graphData);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write the data files", e);
+        }
+    }
+
+    // Takes stores and graph data as read from a data file or snapshot; marks nothing dirty
+    @SuppressWarnings("unchecked")
+    private void load(Map<Integer, Store> storeData, Map<String, Object> graphData) {
+        for (Store store : storeData.values()) {
+            putStore(copyOf(store));
+        }
+        nodes.putAll((Map<String, double[]>) graphData.getOrDefault("nodes", new HashMap<>()));
+        Map<String, List<Map<String, Object>>> edgeData =
+                (Map<String, List<Map<String, Object>>>) graphData.getOrDefault("edges", new HashMap<>());
+        edgeData.forEach((node, edgeList) -> edges.put(node, edgeList.stream()
+                .map(edge -> new Edge((String) edge.get("from"), (String) edge.get("to"),
+                        ((Number) edge.get("weight")).doubleValue()))
+                .toList()));
+    }
+
+    // The graph in DaoFileImpl's format: "nodes" to coordinates, "edges" to lists of from/to/weight maps
+    private static Map<String, Object> toGraphData(Map<String, double[]> nodes, Map<String, List<Edge>> edges) {
+        Map<String, List<Map<String, Object>>> edgeData = new HashMap<>();
+        edges.forEach((node, edgeList) -> {
+            List<Map<String, Object>> list = new ArrayList<>();
+            for (Edge edge : edgeList) {
+                Map<String, Object> data = new HashMap<>();
+                data.put("from", edge.getFromNode());
+                data.put("to", edge.getToNode());
+                data.put("weight", edge.getWeight());
+                list.add(data);
+            }
+            edgeData.put(node, list);
+        });
+        Map<String, Object> graphData = new HashMap<>();
+        graphData.put("nodes", nodes);
+        graphData.put("edges", edgeData);
+        return graphData;
+    }
+
+    private static List<Edge> with(List<Edge> edgeList, Edge edge) {
+        List<Edge> result = edgeList == null ? new ArrayList<>() : new ArrayList<>(edgeList);
+        result.add(edge);
+        return List.copyOf(result);
+    }
+
+    // edgeList without the edges touching node (if given) or leading to to (if given)
+    private static List<Edge> without(List<Edge> edgeList, String node, String to) {
+        return edgeList.stream()
+                .filter(edge -> node == null || (!edge.getFromNode().equals(node) && !edge.getToNode().equals(node)))
+                .filter(edge -> to == null || !edge.getToNode().equals(to))
+                .toList();
+    }
+
+    private static Store copyOf(Store store) {
+        List<Product> products = new ArrayList<>();
+        if (store.getProducts() != null) {
+            for (Product product : store.getProducts()) {
+                products.add(copyOf(product));
+            }
+        }
+        Store copy = new Store(store.getId(), store.getName(), store.getLatitude(), store.getLongitude(),
+                products, store.getLocationId());
+        if (store.getPathToStore() != null) {
+            copy.setPathToStore(new ArrayList<>(store.getPathToStore()));
+        }
+        copy.setDistanceToStore(store.getDistanceToStore());
+        return copy;
+    }
+
+    private static Product copyOf(Product product) {
+        return new Product(product.getId(), product.getName(), product.getPrice());
+    }
+}
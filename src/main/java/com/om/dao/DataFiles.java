@@ -0,0 +1,182 @@
+package com.om.dao;
+
+import com.om.dm.Store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32C;
+
+/**
+ * Reads and writes the serialized data files shared by the DAOs: the store map in
+ * datasource.txt, the graph map in graph.dat and the mutation log's snapshot.
+ *
+ * A file is a header (magic, format version, payload length and the CRC32C of the
+ * payload) followed by the Java-serialized map. It is replaced atomically: the new
+ * contents go to a temporary file in the same directory, which is synced and then
+ * renamed over the old one, so a crash leaves either the old or the new file, never a
+ * truncated one. A missing or empty file reads as no data. Files written before the
+ * header was added (plain serialization) are still read. Anything else that does not
+ * check out throws, so the server stops instead of starting empty and saving that over
+ * the real data.
+ */
+final class DataFiles {
+    static final String STORES_FILE = "src/main/resources/datasource.txt";
+    static final String GRAPH_FILE = "src/main/resources/graph.dat";
+
+    private static final int MAGIC = 0x424E4D44; // "BNMD"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+    // The first two bytes of a Java serialization stream, as in files without a header
+    private static final short SERIALIZATION_MAGIC = (short) 0xACED;
+
+    private DataFiles() {
+    }
+
+    // The store map in fileName; empty if the file is missing or empty
+    @SuppressWarnings("unchecked")
+    static Map<Integer, Store> readStores(String fileName) {
+        return (Map<Integer, Store>) read(fileName);
+    }
+
+    // The graph map ("nodes" and "edges") in fileName; empty if the file is missing or empty
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> readGraph(String fileName) {
+        return (Map<String, Object>) read(fileName);
+    }
+
+    /**
+     * The map in fileName; empty if the file is missing or empty.
+     *
+     * @throws IllegalStateException if the file cannot be read or is damaged
+     */
+    static Map<?, ?> read(String fileName) {
+        DaoFileEvent event = new DaoFileEvent.Load();
+        event.begin();
+        try {
+            byte[] contents = Files.readAllBytes(Path.of(fileName));
+            if (contents.length == 0) {
+                return new HashMap<>();
+            }
+            return deserialize(fileName, payloadOf(fileName, contents));
+        } catch (NoSuchFileException e) {
+            return new HashMap<>();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read data file " + fileName, e);
+        } finally {
+            event.finish(fileName);
+        }
+    }
+
+    // Atomically replaces fileName with data; on failure the old file is left as it was
+    static void write(String fileName, Map<?, ?> data) throws IOException {
+        DaoFileEvent event = new DaoFileEvent.Save();
+        event.begin();
+        try {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(payload)) {
+                oos.writeObject(data);
+            }
+            byte[] bytes = payload.toByteArray();
+            CRC32C crc = new CRC32C();
+            crc.update(bytes);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                    .putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putLong(bytes.length)
+                    .putInt((int) crc.getValue())
+                    .flip();
+
+            Path file = Path.of(fileName).toAbsolutePath();
+            Path directory = file.getParent();
+            Files.createDirectories(directory);
+            // Unique, so concurrent writers of one file don't share a temporary file. Created like any
+            // new file, so the umask applies, unlike Files.createTempFile which makes it owner-only
+            Path temporary = directory.resolve(file.getFileName() + "." + UUID.randomUUID() + ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.WRITE)) {
+                    ByteBuffer body = ByteBuffer.wrap(bytes);
+                    while (header.hasRemaining() || body.hasRemaining()) {
+                        channel.write(new ByteBuffer[]{header, body});
+                    }
+                    channel.force(true);
+                }
+                copyPermissions(file, temporary);
+                Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+            syncDirectory(directory);
+        } finally {
+            event.finish(fileName);
+        }
+    }
+
+    // The file being replaced keeps its permissions, as when it was overwritten in place
+    private static void copyPermissions(Path from, Path to) throws IOException {
+        try {
+            Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+        } catch (NoSuchFileException | UnsupportedOperationException e) {
+            // Nothing to replace yet, or not a POSIX file system
+        }
+    }
+
+    // So the rename itself survives a power loss
+    static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported on every platform; the file contents are already synced
+        }
+    }
+
+    // The serialized map inside contents, after checking the header if there is one
+    private static byte[] payloadOf(String fileName, byte[] contents) {
+        ByteBuffer buffer = ByteBuffer.wrap(contents);
+        if (contents.length >= 2 && buffer.getShort(0) == SERIALIZATION_MAGIC) {
+            return contents; // Written before files had a header
+        }
+        if (contents.length < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IllegalStateException("Data file " + fileName + " is not a data file or is damaged");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IllegalStateException("Data file " + fileName + " has unsupported format version " + version);
+        }
+        long length = buffer.getLong();
+        int checksum = buffer.getInt();
+        if (length != contents.length - HEADER_SIZE) {
+            throw new IllegalStateException("Data file " + fileName + " is truncated or damaged: expected "
+                    + length + " bytes of data, found " + (contents.length - HEADER_SIZE));
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(contents, HEADER_SIZE, (int) length);
+        if ((int) crc.getValue() != checksum) {
+            throw new IllegalStateException("Data file " + fileName + " is damaged: checksum mismatch");
+        }
+        byte[] payload = new byte[(int) length];
+        buffer.get(payload);
+        return payload;
+    }
+
+    private static Map<?, ?> deserialize(String fileName, byte[] payload) {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(payload))) {
+            return (Map<?, ?>) ois.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            throw new IllegalStateException("Data file " + fileName + " cannot be deserialized", e);
+        }
+    }
+}
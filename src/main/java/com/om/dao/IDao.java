@@ -4,6 +4,7 @@ import java.util.Map;
 
 import com.om.dm.Store;
 import com.om.dm.Product;
+import java.util.Comparator;
 import java.util.List;
 
 public interface IDao {
@@ -14,6 +15,15 @@ public interface IDao {
     // Retrieve all stores
     List<Store> getAllStores();
 
+    // Retrieve up to limit stores with an ID greater than afterId, in ID order
+    default List<Store> getStoresAfter(int afterId, int limit) {
+        return getAllStores().stream()
+                .filter(store -> store.getId() > afterId)
+                .sorted(Comparator.comparingInt(Store::getId))
+                .limit(limit)
+                .toList();
+    }
+
     // Retrieve a store by its ID
     Store getStoreById(int id);
 
@@ -32,6 +42,15 @@ public interface IDao {
     // Get all products in a specific store
     List<Product> getProductsByStoreId(int storeId);
 
+    // Retrieve up to limit products of a store with an ID greater than afterId, in ID order
+    default List<Product> getProductsAfter(int storeId, int afterId, int limit) {
+        return getProductsByStoreId(storeId).stream()
+                .filter(product -> product.getId() > afterId)
+                .sorted(Comparator.comparingInt(Product::getId))
+                .limit(limit)
+                .toList();
+    }
+
     // Update a product in a specific store
     void updateProductInStore(int storeId, Product product);
 
@@ -58,4 +77,8 @@ public interface IDao {
 
     // Clear all data
     void clearAll();
+
+    // Write out anything not yet persisted; called on shutdown. Implementations that write through need not override
+    default void flush() {
+    }
 }
\ No newline at end of file
@@ -0,0 +1,36 @@
+package com.om.dao;
+
+import com.om.dm.Store;
+
+/**
+ * One change to the data held by {@link DaoMemoryImpl}, as applied in memory and written
+ * to the {@link MutationLog}. Records carry the resulting state rather than the request
+ * (a product added to a store is logged as the whole updated store), so replaying a log
+ * needs no lookups and assigns no ids.
+ */
+sealed interface Mutation {
+
+    // A store was added or replaced; the store is owned by the DAO and never changed
+    record StorePut(Store store) implements Mutation {
+    }
+
+    record StoreDeleted(int id) implements Mutation {
+    }
+
+    record NodeSaved(String node, double x, double y) implements Mutation {
+    }
+
+    // The node and every edge touching it were removed
+    record NodeRemoved(String node) implements Mutation {
+    }
+
+    // Stored both ways, as the graph is undirected
+    record EdgeSaved(String from, String to, double weight) implements Mutation {
+    }
+
+    record EdgeRemoved(String from, String to) implements Mutation {
+    }
+
+    record Cleared() implements Mutation {
+    }
+}
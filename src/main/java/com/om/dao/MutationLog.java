@@ -0,0 +1,447 @@
+package com.om.dao;
+
+import com.om.dm.Product;
+import com.om.dm.Store;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of {@link Mutation}s with snapshot compaction, so a change costs one
+ * appended record instead of a rewrite of every store.
+ *
+ * The directory holds numbered segments (wal-000001.log, ...) and a snapshot of all data
+ * as of the start of one segment. A record is its payload length, the CRC32C of the
+ * payload and the payload. Recovery loads the snapshot and replays every later segment.
+ * A torn record at the end of the last segment (a crash mid-append) is cut off; a bad
+ * record with more data after it, or in an earlier segment, means the log is damaged, and
+ * recovery fails rather than starting with data missing.
+ *
+ * Compaction rolls appends over to a new segment, atomically replaces the snapshot (see
+ * {@link DataFiles}) and deletes the segments it covers. How often appends are synced to
+ * disk is set by {@link Sync}. Thread-safe; appends must be made in the order the
+ * mutations are applied.
+ */
+public class MutationLog implements AutoCloseable {
+
+    // When appended records are forced to disk
+    public enum Sync {
+        // Before the mutation returns; concurrent writers share one fsync
+        ALWAYS,
+        // Every flush interval of the DAO, bounding what a power loss can take
+        INTERVAL,
+        // Left to the OS, except on flush and close; a process crash still loses nothing
+        NEVER
+    }
+
+    // The data a snapshot holds, and the first segment to replay after it
+    record Snapshot(long segment, Map<Integer, Store> stores, Map<String, Object> graph) {
+    }
+
+    private static final String SNAPSHOT_FILE = "snapshot";
+    private static final Pattern SEGMENT_FILE = Pattern.compile("wal-(\\d+)\\.log");
+    private static final int HEADER_SIZE = 8;
+    // Far larger than any real record; a bigger length can only be damage
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+    private static final byte STORE_PUT = 1;
+    private static final byte STORE_DELETED = 2;
+    private static final byte NODE_SAVED = 3;
+    private static final byte NODE_REMOVED = 4;
+    private static final byte EDGE_SAVED = 5;
+    private static final byte EDGE_REMOVED = 6;
+    private static final byte CLEARED = 7;
+
+    private final Path directory;
+    private final Sync sync;
+    private final long compactAfterBytes;
+
+    // Lock order: syncLock, then this
+    private final Object syncLock = new Object();
+    // Guarded by this
+    private FileChannel channel;
+    private long segment;
+    private long appended;
+    private long sinceSnapshot;
+    private IOException failure;
+    // Guarded by syncLock; how much of appended is known to be on disk
+    private long synced;
+
+    /**
+     * @param compactAfterBytes log size after which {@link #needsCompaction()} asks for a new snapshot
+     */
+    public MutationLog(String directory, Sync sync, long compactAfterBytes) {
+        if (sync == null) {
+            throw new IllegalArgumentException("Sync policy cannot be null");
+        }
+        if (compactAfterBytes <= 0) {
+            throw new IllegalArgumentException("Compaction threshold must be positive");
+        }
+        this.directory = Path.of(directory);
+        this.sync = sync;
+        this.compactAfterBytes = compactAfterBytes;
+    }
+
+    Sync sync() {
+        return sync;
+    }
+
+    // The newest snapshot, or null if there is none yet
+    @SuppressWarnings("unchecked")
+    Snapshot readSnapshot() {
+        Path file = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        Map<String, Object> data = (Map<String, Object>) DataFiles.read(file.toString());
+        try {
+            return new Snapshot((Long) data.get("segment"), (Map<Integer, Store>) data.get("stores"),
+                    (Map<String, Object>) data.get("graph"));
+        } catch (ClassCastException | NullPointerException e) {
+            throw new IllegalStateException("Snapshot " + file + " is damaged", e);
+        }
+    }
+
+    /**
+     * Passes every record logged since the snapshot (from the segment it names, or from the
+     * start if there is none) to apply, in order, then opens a new segment for appends.
+     */
+    synchronized void replay(Snapshot snapshot, Consumer<Mutation> apply) {
+        try {
+            Files.createDirectories(directory);
+            long first = snapshot == null ? 0 : snapshot.segment();
+            TreeMap<Long, Path> segments = segments();
+            long last = segments.isEmpty() ? 0 : segments.lastKey();
+            for (Map.Entry<Long, Path> entry : segments.entrySet()) {
+                if (entry.getKey() < first) {
+                    Files.delete(entry.getValue()); // Left over from a compaction cut short
+                } else {
+                    replay(entry.getValue(), entry.getKey() == last, apply);
+                }
+            }
+            open(Math.max(last + 1, Math.max(first, 1)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot recover mutation log in " + directory, e);
+        }
+    }
+
+    /**
+     * Appends one record, without waiting for it to reach the disk.
+     *
+     * @return the log position after the record, for {@link #sync(long)}
+     * @throws UncheckedIOException if the record could not be written; the log then refuses
+     *                              further appends, as it may end in a partial record
+     */
+    synchronized long append(Mutation mutation) {
+        if (failure != null) {
+            throw new UncheckedIOException("Mutation log failed earlier; restart the server", failure);
+        }
+        byte[] payload = encode(mutation);
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        try {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        } catch (IOException e) {
+            failure = e;
+            throw new UncheckedIOException("Cannot append to mutation log", e);
+        }
+        appended += record.limit();
+        sinceSnapshot += record.limit();
+        return appended;
+    }
+
+    synchronized long position() {
+        return appended;
+    }
+
+    synchronized boolean needsCompaction() {
+        return sinceSnapshot >= compactAfterBytes;
+    }
+
+    /**
+     * Returns once everything up to position is on disk. Writers that call this together
+     * share one fsync: whoever gets the lock first syncs all records appended so far.
+     */
+    void sync(long position) {
+        synchronized (syncLock) {
+            if (synced >= position) {
+                return;
+            }
+            FileChannel current;
+            long target;
+            synchronized (this) {
+                current = channel;
+                target = appended;
+            }
+            try {
+                current.force(false);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot sync mutation log", e);
+            }
+            synced = target;
+        }
+    }
+
+    /**
+     * Starts a new segment for appends and returns its number. Must be called while no
+     * mutation is being applied, so the data a snapshot is then taken of is exactly what
+     * the log holds up to here.
+     */
+    long roll() {
+        synchronized (syncLock) {
+            synchronized (this) {
+                try {
+                    channel.force(false);
+                    channel.close();
+                    open(segment + 1);
+                } catch (IOException e) {
+                    failure = e;
+                    throw new UncheckedIOException("Cannot start a new log segment", e);
+                }
+                synced = appended;
+                sinceSnapshot = 0;
+                return segment;
+            }
+        }
+    }
+
+    // Replaces the snapshot with one that replay starts at segment, then deletes the older segments
+    void writeSnapshot(long segment, Map<Integer, Store> stores, Map<String, Object> graph) {
+        Path file = directory.resolve(SNAPSHOT_FILE);
+        Map<String, Object> data = new HashMap<>();
+        data.put("segment", segment);
+        data.put("stores", stores);
+        data.put("graph", graph);
+        try {
+            DataFiles.write(file.toString(), data);
+            for (Map.Entry<Long, Path> entry : segments().headMap(segment).entrySet()) {
+                Files.delete(entry.getValue());
+            }
+        } catch (IOException e) {
+            // The old snapshot and segments are still in place, so nothing is lost
+            throw new UncheckedIOException("Cannot write snapshot " + file, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (syncLock) {
+            synchronized (this) {
+                if (channel == null) {
+                    return;
+                }
+                try {
+                    channel.force(false);
+                    channel.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Cannot close mutation log", e);
+                } finally {
+                    channel = null;
+                }
+                synced = appended;
+            }
+        }
+    }
+
+    // Under this
+    private void open(long number) throws IOException {
+        segment = number;
+        channel = FileChannel.open(directory.resolve(String.format("wal-%06d.log", number)),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        DataFiles.syncDirectory(directory);
+    }
+
+    private TreeMap<Long, Path> segments() throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                Matcher matcher = SEGMENT_FILE.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    segments.put(Long.parseLong(matcher.group(1)), file);
+                }
+            });
+        }
+        return segments;
+    }
+
+    // A record that fails its checks is torn (cut off by a crash mid-append) only if nothing
+    // follows it; otherwise records after it were written, perhaps synced, and can't be dropped
+    private static void replay(Path file, boolean last, Consumer<Mutation> apply) throws IOException {
+        long size = Files.size(file);
+        long valid = 0;
+        try (InputStream in = Files.newInputStream(file);
+             DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+            while (size - valid >= HEADER_SIZE) {
+                int length = data.readInt();
+                int checksum = data.readInt();
+                if (length <= 0 || length > MAX_RECORD_SIZE) {
+                    // Its extent is unknown; a tail of zeros is space the append never filled
+                    if (!onlyZerosLeft(data)) {
+                        throw damaged(file, valid, "invalid record length " + length);
+                    }
+                    break;
+                }
+                long end = valid + HEADER_SIZE + length;
+                if (end > size) {
+                    break;
+                }
+                byte[] payload = data.readNBytes(length);
+                CRC32C crc = new CRC32C();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    if (end < size) {
+                        throw damaged(file, valid, "checksum mismatch");
+                    }
+                    break;
+                }
+                apply.accept(decode(payload));
+                valid = end;
+            }
+        }
+        if (valid < size) {
+            if (!last) {
+                throw damaged(file, valid, "segment ends mid-record");
+            }
+            System.err.println("Dropping torn record at the end of " + file + " (" + (size - valid) + " bytes)");
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(valid);
+                channel.force(false);
+            }
+        }
+    }
+
+    private static boolean onlyZerosLeft(InputStream in) throws IOException {
+        int b;
+        while ((b = in.read()) >= 0) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static IllegalStateException damaged(Path file, long offset, String problem) {
+        return new IllegalStateException("Damaged record at byte " + offset + " of " + file + ": " + problem);
+    }
+
+    private static byte[] encode(Mutation mutation) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            switch (mutation) {
+                case Mutation.StorePut put -> {
+                    out.writeByte(STORE_PUT);
+                    writeStore(out, put.store());
+                }
+                case Mutation.StoreDeleted deleted -> {
+                    out.writeByte(STORE_DELETED);
+                    out.writeInt(deleted.id());
+                }
+                case Mutation.NodeSaved saved -> {
+                    out.writeByte(NODE_SAVED);
+                    writeString(out, saved.node());
+                    out.writeDouble(saved.x());
+                    out.writeDouble(saved.y());
+                }
+                case Mutation.NodeRemoved removed -> {
+                    out.writeByte(NODE_REMOVED);
+                    writeString(out, removed.node());
+                }
+                case Mutation.EdgeSaved saved -> {
+                    out.writeByte(EDGE_SAVED);
+                    writeString(out, saved.from());
+                    writeString(out, saved.to());
+                    out.writeDouble(saved.weight());
+                }
+                case Mutation.EdgeRemoved removed -> {
+                    out.writeByte(EDGE_REMOVED);
+                    writeString(out, removed.from());
+                    writeString(out, removed.to());
+                }
+                case Mutation.Cleared cleared -> out.writeByte(CLEARED);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Not thrown by in-memory streams
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Mutation decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        return switch (type) {
+            case STORE_PUT -> new Mutation.StorePut(readStore(in));
+            case STORE_DELETED -> new Mutation.StoreDeleted(in.readInt());
+            case NODE_SAVED -> new Mutation.NodeSaved(readString(in), in.readDouble(), in.readDouble());
+            case NODE_REMOVED -> new Mutation.NodeRemoved(readString(in));
+            case EDGE_SAVED -> new Mutation.EdgeSaved(readString(in), readString(in), in.readDouble());
+            case EDGE_REMOVED -> new Mutation.EdgeRemoved(readString(in), readString(in));
+            case CLEARED -> new Mutation.Cleared();
+            default -> throw new IOException("Unknown mutation type " + type);
+        };
+    }
+
+    // Path and distance are search results, not stored data, so they are not logged
+    private static void writeStore(DataOutputStream out, Store store) throws IOException {
+        out.writeInt(store.getId());
+        writeString(out, store.getName());
+        out.writeDouble(store.getLatitude());
+        out.writeDouble(store.getLongitude());
+        writeString(out, store.getLocationId());
+        out.writeInt(store.getProducts().size());
+        for (Product product : store.getProducts()) {
+            out.writeInt(product.getId());
+            writeString(out, product.getName());
+            out.writeDouble(product.getPrice());
+        }
+    }
+
+    private static Store readStore(DataInputStream in) throws IOException {
+        int id = in.readInt();
+        String name = readString(in);
+        double latitude = in.readDouble();
+        double longitude = in.readDouble();
+        String locationId = readString(in);
+        int count = in.readInt();
+        List<Product> products = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            products.add(new Product(in.readInt(), readString(in), in.readDouble()));
+        }
+        return new Store(id, name, latitude, longitude, products, locationId);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,76 @@
+package com.om.dao;
+
+import com.om.algorithm.Edge;
+import com.om.util.Deadline;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Dijkstra from one node to the closest of several targets, stopping as soon as the first
+ * target is settled. Unlike the library implementation it checks the request
+ * {@link Deadline} as it goes, so a search on a large graph can be abandoned.
+ */
+final class NearestSearch {
+    // Settled nodes between deadline checks
+    private static final int CHECK_INTERVAL = 64;
+
+    record Path(List<String> nodes, double distance) {
+    }
+
+    private record Entry(String node, double distance) {
+    }
+
+    private NearestSearch() {
+    }
+
+    // Shortest path from source to the nearest node in targets, or null if none is reachable
+    static Path nearest(Map<String, List<Edge>> graph, String source, Set<String> targets) {
+        if (targets.isEmpty()) {
+            return null;
+        }
+        Map<String, Double> distances = new HashMap<>();
+        Map<String, String> previous = new HashMap<>();
+        PriorityQueue<Entry> queue = new PriorityQueue<>((a, b) -> Double.compare(a.distance(), b.distance()));
+        distances.put(source, 0.0);
+        queue.add(new Entry(source, 0.0));
+
+        int settled = 0;
+        while (!queue.isEmpty()) {
+            Entry entry = queue.poll();
+            if (entry.distance() > distances.get(entry.node())) {
+                continue; // Superseded by a shorter path found later
+            }
+            if (targets.contains(entry.node())) {
+                return new Path(pathTo(previous, entry.node()), entry.distance());
+            }
+            if (++settled % CHECK_INTERVAL == 0) {
+                Deadline.check();
+            }
+            for (Edge edge : graph.getOrDefault(entry.node(), List.of())) {
+                double distance = entry.distance() + edge.getWeight();
+                Double known = distances.get(edge.getToNode());
+                if (known == null || distance < known) {
+                    distances.put(edge.getToNode(), distance);
+                    previous.put(edge.getToNode(), entry.node());
+                    queue.add(new Entry(edge.getToNode(), distance));
+                }
+            }
+        }
+        return null;
+    }
+
+    private static List<String> pathTo(Map<String, String> previous, String target) {
+        List<String> path = new ArrayList<>();
+        for (String node = target; node != null; node = previous.get(node)) {
+            path.add(node);
+        }
+        Collections.reverse(path);
+        return path;
+    }
+}
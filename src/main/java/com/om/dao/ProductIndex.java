@@ -0,0 +1,85 @@
+package com.om.dao;
+
+import com.om.dm.Product;
+import com.om.dm.Store;
+import com.om.util.ProductNames;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Index from product name, ignoring case, to the stores carrying it and the price each
+ * asks, so product lookups cost O(stores carrying the product) rather than a scan of
+ * every product. A store's entry is the price of its first product with that name, as
+ * the scans it replaces found.
+ *
+ * The owning DAO keeps it current by passing each store it changes to {@link #put} or
+ * {@link #remove}; those calls must not run concurrently with each other, but lookups
+ * may run alongside them.
+ */
+final class ProductIndex {
+    // Product key -> store id -> price, in store id order
+    private final Map<String, NavigableMap<Integer, Double>> storesByProduct = new ConcurrentHashMap<>();
+    // Store id -> product keys it is indexed under, to drop a store's entries
+    private final Map<Integer, Set<String>> productsByStore = new ConcurrentHashMap<>();
+
+    // Re-indexes store from its current product list
+    void put(Store store) {
+        remove(store.getId());
+        Set<String> keys = new HashSet<>();
+        if (store.getProducts() != null) {
+            for (Product product : store.getProducts()) {
+                String key = ProductNames.key(product.getName());
+                if (key != null && keys.add(key)) {
+                    storesByProduct.computeIfAbsent(key, k -> new ConcurrentSkipListMap<>())
+                            .put(store.getId(), product.getPrice());
+                }
+            }
+        }
+        if (!keys.isEmpty()) {
+            productsByStore.put(store.getId(), keys);
+        }
+    }
+
+    void remove(int storeId) {
+        Set<String> keys = productsByStore.remove(storeId);
+        if (keys == null) {
+            return;
+        }
+        for (String key : keys) {
+            storesByProduct.computeIfPresent(key, (k, stores) -> {
+                stores.remove(storeId);
+                return stores.isEmpty() ? null : stores;
+            });
+        }
+    }
+
+    void clear() {
+        storesByProduct.clear();
+        productsByStore.clear();
+    }
+
+    // Store id -> price for every store carrying productName, in id order
+    NavigableMap<Integer, Double> storesWith(String productName) {
+        NavigableMap<Integer, Double> stores = productName == null ? null : storesByProduct.get(ProductNames.key(productName));
+        return stores == null ? Collections.emptyNavigableMap() : Collections.unmodifiableNavigableMap(stores);
+    }
+
+    // Id of the store asking the lowest price for productName, the lowest id on a tie; -1 if none
+    int cheapest(String productName) {
+        int cheapestStore = -1;
+        double lowestPrice = Double.MAX_VALUE;
+        for (Map.Entry<Integer, Double> entry : storesWith(productName).entrySet()) {
+            if (entry.getValue() < lowestPrice) {
+                lowestPrice = entry.getValue();
+                cheapestStore = entry.getKey();
+            }
+        }
+        return cheapestStore;
+    }
+}
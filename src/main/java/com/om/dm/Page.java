@@ -0,0 +1,29 @@
+package com.om.dm;
+
+import java.util.List;
+
+/**
+ * One page of a listing, plus the cursor for the page after it.
+ * The cursor is null on the last page.
+ */
+public class Page<T> {
+    private final List<T> items;
+    private final String nextCursor;
+
+    public Page(List<T> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
@@ -0,0 +1,171 @@
+package com.om.server;
+
+import com.om.util.Deadline;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides whether a request may run now, wait briefly, or be rejected as overloaded.
+ *
+ * Reads and writes go through separate lanes, each with its own concurrency limit and
+ * wait queue, so a burst of writes can't starve cheap reads and vice versa. On top of that
+ * a global cap bounds everything admitted or waiting. A request that finds its lane full
+ * waits at most {@code maxQueueWaitMillis}; past the queue limit, the global cap or the
+ * wait, it is rejected at once so clients see a fast "overloaded" instead of a slow answer.
+ */
+public class AdmissionController {
+    private final int maxInFlight;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejectedInFlight = new LongAdder();
+    private final long maxQueueWaitMillis;
+    private final Lane reads;
+    private final Lane writes;
+
+    /**
+     * @param maxInFlight        requests running or queued across both lanes
+     * @param maxQueueWaitMillis longest a request waits for its lane before being rejected
+     */
+    public AdmissionController(int maxInFlight, int maxConcurrentReads, int maxQueuedReads,
+                               int maxConcurrentWrites, int maxQueuedWrites, long maxQueueWaitMillis) {
+        if (maxInFlight <= 0 || maxConcurrentReads <= 0 || maxConcurrentWrites <= 0) {
+            throw new IllegalArgumentException("Admission limits must be positive");
+        }
+        if (maxQueuedReads < 0 || maxQueuedWrites < 0 || maxQueueWaitMillis < 0) {
+            throw new IllegalArgumentException("Queue limits and wait must not be negative");
+        }
+        this.maxInFlight = maxInFlight;
+        this.maxQueueWaitMillis = maxQueueWaitMillis;
+        this.reads = new Lane(maxConcurrentReads, maxQueuedReads);
+        this.writes = new Lane(maxConcurrentWrites, maxQueuedWrites);
+    }
+
+    // Effectively no limits; used when the server is created without admission settings
+    public static AdmissionController unlimited() {
+        return new AdmissionController(Integer.MAX_VALUE, Integer.MAX_VALUE, 0, Integer.MAX_VALUE, 0, 0);
+    }
+
+    public Permit admit(boolean readOnly) {
+        return admit(readOnly, null);
+    }
+
+    /**
+     * Admits a request to the read or write lane, waiting briefly if the lane is busy.
+     * The wait never outlasts the request's deadline, if it has one.
+     *
+     * @return a permit to close when the request is done, or null if it was rejected
+     */
+    public Permit admit(boolean readOnly, Deadline deadline) {
+        if (inFlight.incrementAndGet() > maxInFlight) {
+            inFlight.decrementAndGet();
+            rejectedInFlight.increment();
+            return null;
+        }
+        Lane lane = readOnly ? reads : writes;
+        long maxWaitMillis = deadline == null ? maxQueueWaitMillis : Math.min(maxQueueWaitMillis, deadline.remainingMillis());
+        if (lane.acquire(maxWaitMillis)) {
+            return new Permit(lane);
+        }
+        inFlight.decrementAndGet();
+        return null;
+    }
+
+    // How many reads may run at once
+    public int maxConcurrentReads() {
+        return reads.maxConcurrent;
+    }
+
+    // Counters for the admin/admission action
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("inFlight", inFlight.get());
+        stats.put("maxInFlight", maxInFlight);
+        stats.put("rejectedInFlight", rejectedInFlight.sum());
+        stats.put("read", reads.stats());
+        stats.put("write", writes.stats());
+        return stats;
+    }
+
+    /**
+     * Held while an admitted request runs; closing it frees the lane slot.
+     */
+    public class Permit implements AutoCloseable {
+        private final Lane lane;
+        private boolean released;
+
+        private Permit(Lane lane) {
+            this.lane = lane;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                lane.release();
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    private static class Lane {
+        private final int maxConcurrent;
+        private final int maxQueued;
+        private final Semaphore permits;
+        private final AtomicInteger queued = new AtomicInteger();
+        private final LongAdder admitted = new LongAdder();
+        private final LongAdder rejectedQueueFull = new LongAdder();
+        private final LongAdder rejectedTimeout = new LongAdder();
+
+        Lane(int maxConcurrent, int maxQueued) {
+            this.maxConcurrent = maxConcurrent;
+            this.maxQueued = maxQueued;
+            this.permits = new Semaphore(maxConcurrent);
+        }
+
+        boolean acquire(long maxWaitMillis) {
+            if (permits.tryAcquire()) {
+                admitted.increment();
+                return true;
+            }
+            if (queued.incrementAndGet() > maxQueued) {
+                queued.decrementAndGet();
+                rejectedQueueFull.increment();
+                return false;
+            }
+            try {
+                if (permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                    admitted.increment();
+                    return true;
+                }
+                rejectedTimeout.increment();
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                rejectedTimeout.increment();
+                return false;
+            } finally {
+                queued.decrementAndGet();
+            }
+        }
+
+        void release() {
+            permits.release();
+        }
+
+        Map<String, Object> stats() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("active", maxConcurrent - permits.availablePermits());
+            stats.put("queued", queued.get());
+            stats.put("maxConcurrent", maxConcurrent);
+            stats.put("maxQueued", maxQueued);
+            stats.put("admitted", admitted.sum());
+            stats.put("rejectedQueueFull", rejectedQueueFull.sum());
+            stats.put("rejectedTimeout", rejectedTimeout.sum());
+            return stats;
+        }
+    }
+}
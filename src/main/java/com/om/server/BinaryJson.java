@@ -0,0 +1,61 @@
+package com.om.server;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of the JSON data model, used on connections that start with
+ * {@link Frames#BINARY_PREAMBLE}. Frames are unchanged; only the payload differs.
+ *
+ * Each value is a one-byte tag followed by its data. Integers are zigzag varints, doubles
+ * are 8 bytes, and strings (object keys included) go through a string table: the first
+ * occurrence is sent inline and appended to the table, later ones are sent as a varint
+ * index. Each direction of a connection has its own table that lives as long as the
+ * connection, so field names, node names and product names cost a byte or two after their
+ * first use. Both ends must process messages in wire order for the tables to stay in step.
+ *
+ * {@link BinaryJsonWriter} and {@link BinaryJsonReader} plug into Gson as a JsonWriter and
+ * JsonReader, so every adapter and the request decoder work on either encoding.
+ */
+public final class BinaryJson {
+    static final int BEGIN_OBJECT = 0x01;
+    static final int END_OBJECT = 0x02;
+    static final int BEGIN_ARRAY = 0x03;
+    static final int END_ARRAY = 0x04;
+    static final int NULL = 0x05;
+    static final int TRUE = 0x06;
+    static final int FALSE = 0x07;
+    static final int INT = 0x08;           // zigzag varint
+    static final int DOUBLE = 0x09;        // 8 bytes, big-endian IEEE 754
+    static final int NUMBER_TEXT = 0x0A;   // varint length + UTF-8 digits, for numbers that fit neither
+    static final int STRING_NEW = 0x0B;    // varint length + UTF-8, appended to the table
+    static final int STRING_REF = 0x0C;    // varint table index
+    static final int STRING_INLINE = 0x0D; // varint length + UTF-8, not added to the table
+
+    // Bounds per connection and direction, so a client can't grow the tables without limit
+    static final int MAX_TABLE_SIZE = 1024;
+    static final int MAX_INTERNED_LENGTH = 48;
+
+    private BinaryJson() {
+    }
+
+    /**
+     * The string tables of one connection: one for each direction. Messages must be
+     * encoded, and decoded, one at a time in the order they travel.
+     */
+    public static class Session {
+        private final Map<String, Integer> outgoing = new HashMap<>();
+        private final List<String> incoming = new ArrayList<>();
+
+        public BinaryJsonWriter writer(OutputStream out) {
+            return new BinaryJsonWriter(out, outgoing);
+        }
+
+        public BinaryJsonReader reader(byte[] message) {
+            return new BinaryJsonReader(message, incoming);
+        }
+    }
+}
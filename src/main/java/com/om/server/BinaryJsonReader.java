@@ -0,0 +1,346 @@
+package com.om.server;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.om.server.BinaryJson.*;
+
+/**
+ * A JsonReader over one message in the {@link BinaryJson} encoding.
+ *
+ * Numbers convert between integer and floating point the way JsonReader does for text,
+ * and strings are added to the connection's table as they are read or skipped, so the
+ * table stays in step with the sender even for values nobody looks at.
+ */
+public class BinaryJsonReader extends JsonReader {
+    // What the innermost open container expects next
+    private static final int DOCUMENT = 0;
+    private static final int ARRAY = 1;
+    private static final int OBJECT_NAME = 2;
+    private static final int OBJECT_VALUE = 3;
+
+    private final byte[] data;
+    private final List<String> strings;
+    private int pos;
+    private int[] scopes = new int[16];
+    private int depth = 1;
+
+    BinaryJsonReader(byte[] data, List<String> strings) {
+        super(Reader.nullReader());
+        this.data = data;
+        this.strings = strings;
+        scopes[0] = DOCUMENT;
+    }
+
+    @Override
+    public JsonToken peek() throws IOException {
+        if (pos >= data.length) {
+            return JsonToken.END_DOCUMENT;
+        }
+        int tag = data[pos] & 0xFF;
+        return switch (tag) {
+            case BEGIN_OBJECT -> JsonToken.BEGIN_OBJECT;
+            case END_OBJECT -> JsonToken.END_OBJECT;
+            case BEGIN_ARRAY -> JsonToken.BEGIN_ARRAY;
+            case END_ARRAY -> JsonToken.END_ARRAY;
+            case NULL -> JsonToken.NULL;
+            case TRUE, FALSE -> JsonToken.BOOLEAN;
+            case INT, DOUBLE, NUMBER_TEXT -> JsonToken.NUMBER;
+            case STRING_NEW, STRING_REF, STRING_INLINE ->
+                    scopes[depth - 1] == OBJECT_NAME ? JsonToken.NAME : JsonToken.STRING;
+            default -> throw new MalformedJsonException("Unknown tag " + tag + " at byte " + pos);
+        };
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        JsonToken token = peek();
+        return token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY && token != JsonToken.END_DOCUMENT;
+    }
+
+    @Override
+    public void beginObject() throws IOException {
+        expect(JsonToken.BEGIN_OBJECT);
+        pos++;
+        push(OBJECT_NAME);
+    }
+
+    @Override
+    public void endObject() throws IOException {
+        expect(JsonToken.END_OBJECT);
+        pos++;
+        depth--;
+        valueConsumed();
+    }
+
+    @Override
+    public void beginArray() throws IOException {
+        expect(JsonToken.BEGIN_ARRAY);
+        pos++;
+        push(ARRAY);
+    }
+
+    @Override
+    public void endArray() throws IOException {
+        expect(JsonToken.END_ARRAY);
+        pos++;
+        depth--;
+        valueConsumed();
+    }
+
+    @Override
+    public String nextName() throws IOException {
+        expect(JsonToken.NAME);
+        String name = readString();
+        scopes[depth - 1] = OBJECT_VALUE;
+        return name;
+    }
+
+    @Override
+    public String nextString() throws IOException {
+        JsonToken token = peek();
+        String value;
+        if (token == JsonToken.STRING) {
+            value = readString();
+        } else if (token == JsonToken.NUMBER) {
+            value = readNumberText();
+        } else {
+            throw unexpected("a string", token);
+        }
+        valueConsumed();
+        return value;
+    }
+
+    @Override
+    public boolean nextBoolean() throws IOException {
+        expect(JsonToken.BOOLEAN);
+        boolean value = data[pos++] == TRUE;
+        valueConsumed();
+        return value;
+    }
+
+    @Override
+    public void nextNull() throws IOException {
+        expect(JsonToken.NULL);
+        pos++;
+        valueConsumed();
+    }
+
+    @Override
+    public double nextDouble() throws IOException {
+        JsonToken token = peek();
+        double value;
+        if (token == JsonToken.NUMBER && data[pos] == INT) {
+            pos++;
+            value = readZigzag();
+        } else if (token == JsonToken.NUMBER && data[pos] == DOUBLE) {
+            pos++;
+            value = readDouble();
+        } else if (token == JsonToken.NUMBER || token == JsonToken.STRING) {
+            // Numbers sent as text or quoted, which JsonReader also accepts
+            value = Double.parseDouble(token == JsonToken.NUMBER ? readNumberText() : readString());
+        } else {
+            throw unexpected("a double", token);
+        }
+        valueConsumed();
+        return value;
+    }
+
+    @Override
+    public long nextLong() throws IOException {
+        JsonToken token = peek();
+        long value;
+        if (token == JsonToken.NUMBER && data[pos] == INT) {
+            pos++;
+            value = readZigzag();
+        } else if (token == JsonToken.NUMBER || token == JsonToken.STRING) {
+            String text = token == JsonToken.STRING ? readString() : readNumberText();
+            value = parseLong(text);
+        } else {
+            throw unexpected("a long", token);
+        }
+        valueConsumed();
+        return value;
+    }
+
+    @Override
+    public int nextInt() throws IOException {
+        long value = nextLong();
+        if ((int) value != value) {
+            throw new NumberFormatException("Expected an int but was " + value + " at byte " + pos);
+        }
+        return (int) value;
+    }
+
+    @Override
+    public void skipValue() throws IOException {
+        JsonToken token = peek();
+        switch (token) {
+            case NAME -> nextName();
+            case BEGIN_OBJECT -> {
+                beginObject();
+                while (hasNext()) {
+                    nextName();
+                    skipValue();
+                }
+                endObject();
+            }
+            case BEGIN_ARRAY -> {
+                beginArray();
+                while (hasNext()) {
+                    skipValue();
+                }
+                endArray();
+            }
+            case STRING, NUMBER -> nextString();
+            case BOOLEAN -> nextBoolean();
+            case NULL -> nextNull();
+            default -> throw unexpected("a value", token);
+        }
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release; the message is a byte array
+    }
+
+    @Override
+    public String getPath() {
+        return "byte " + pos;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " at byte " + pos;
+    }
+
+    private void expect(JsonToken expected) throws IOException {
+        JsonToken token = peek();
+        if (token != expected) {
+            throw unexpected(expected.toString(), token);
+        }
+    }
+
+    private IllegalStateException unexpected(String expected, JsonToken actual) {
+        return new IllegalStateException("Expected " + expected + " but was " + actual + " at byte " + pos);
+    }
+
+    private void push(int scope) {
+        if (depth == scopes.length) {
+            scopes = Arrays.copyOf(scopes, depth * 2);
+        }
+        scopes[depth++] = scope;
+    }
+
+    private void valueConsumed() {
+        if (scopes[depth - 1] == OBJECT_VALUE) {
+            scopes[depth - 1] = OBJECT_NAME;
+        }
+    }
+
+    private String readString() throws IOException {
+        int tag = readTag();
+        if (tag == STRING_REF) {
+            int index = readLength();
+            if (index >= strings.size()) {
+                throw new MalformedJsonException("Unknown string reference " + index + " at byte " + pos);
+            }
+            return strings.get(index);
+        }
+        String value = readUtf8();
+        if (tag == STRING_NEW) {
+            if (strings.size() >= MAX_TABLE_SIZE) {
+                throw new MalformedJsonException("String table overflow at byte " + pos);
+            }
+            strings.add(value);
+        }
+        return value;
+    }
+
+    // The text of a number token, as JsonReader.nextString() returns it
+    private String readNumberText() throws IOException {
+        int tag = readTag();
+        return switch (tag) {
+            case INT -> Long.toString(readZigzag());
+            case DOUBLE -> Double.toString(readDouble());
+            default -> readUtf8();
+        };
+    }
+
+    private static long parseLong(String text) {
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            double value = Double.parseDouble(text);
+            if ((long) value != value) {
+                throw new NumberFormatException("Expected a long but was " + text);
+            }
+            return (long) value;
+        }
+    }
+
+    private String readUtf8() throws IOException {
+        int length = readLength();
+        if (length > data.length - pos) {
+            throw new MalformedJsonException("String runs past the end of the message");
+        }
+        String value = new String(data, pos, length, StandardCharsets.UTF_8);
+        pos += length;
+        return value;
+    }
+
+    private int readTag() throws IOException {
+        if (pos >= data.length) {
+            throw new MalformedJsonException("Message ends where a value was expected");
+        }
+        return data[pos++];
+    }
+
+    // A varint used as a length or table index, so it must fit in a non-negative int
+    private int readLength() throws IOException {
+        int at = pos;
+        long value = readVarint();
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new MalformedJsonException("Length or index out of range at byte " + at);
+        }
+        return (int) value;
+    }
+
+    private double readDouble() throws IOException {
+        if (data.length - pos < 8) {
+            throw new MalformedJsonException("Double runs past the end of the message");
+        }
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits = (bits << 8) | (data[pos++] & 0xFF);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    private long readZigzag() throws IOException {
+        long value = readVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos >= data.length) {
+                throw new MalformedJsonException("Varint runs past the end of the message");
+            }
+            int b = data[pos++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new MalformedJsonException("Varint too long at byte " + pos);
+    }
+}
@@ -0,0 +1,309 @@
+package com.om.server;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Objects;
+
+import static com.om.server.BinaryJson.*;
+
+/**
+ * A JsonWriter that emits the {@link BinaryJson} encoding instead of text.
+ *
+ * Names are deferred like in JsonWriter so that null properties are dropped unless the
+ * Gson instance serializes nulls. Output is buffered; {@link #flush()} pushes it to the
+ * underlying stream and {@link #close()} only flushes, leaving the stream open.
+ */
+public class BinaryJsonWriter extends JsonWriter {
+    private final OutputStream out;
+    private final Map<String, Integer> strings;
+    private final byte[] buffer = new byte[1024];
+    private int count;
+    private String deferredName;
+
+    BinaryJsonWriter(OutputStream out, Map<String, Integer> strings) {
+        super(Writer.nullWriter());
+        this.out = out;
+        this.strings = strings;
+    }
+
+    @Override
+    public JsonWriter beginObject() throws IOException {
+        writeDeferredName();
+        writeByte(BEGIN_OBJECT);
+        return this;
+    }
+
+    @Override
+    public JsonWriter endObject() throws IOException {
+        if (deferredName != null) {
+            throw new IllegalStateException("Dangling name: " + deferredName);
+        }
+        writeByte(END_OBJECT);
+        return this;
+    }
+
+    @Override
+    public JsonWriter beginArray() throws IOException {
+        writeDeferredName();
+        writeByte(BEGIN_ARRAY);
+        return this;
+    }
+
+    @Override
+    public JsonWriter endArray() throws IOException {
+        writeByte(END_ARRAY);
+        return this;
+    }
+
+    @Override
+    public JsonWriter name(String name) throws IOException {
+        Objects.requireNonNull(name, "name == null");
+        if (deferredName != null) {
+            throw new IllegalStateException("Name already given: " + deferredName);
+        }
+        deferredName = name;
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        writeDeferredName();
+        writeString(value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter nullValue() throws IOException {
+        if (deferredName != null && !getSerializeNulls()) {
+            // Drop the property entirely, as JsonWriter does
+            deferredName = null;
+            return this;
+        }
+        writeDeferredName();
+        writeByte(NULL);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(boolean value) throws IOException {
+        writeDeferredName();
+        writeByte(value ? TRUE : FALSE);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Boolean value) throws IOException {
+        return value == null ? nullValue() : value(value.booleanValue());
+    }
+
+    // Not annotated: value(float) only exists in newer Gson versions
+    public JsonWriter value(float value) throws IOException {
+        checkFinite(value);
+        writeDeferredName();
+        writeText(NUMBER_TEXT, Float.toString(value));
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(double value) throws IOException {
+        checkFinite(value);
+        writeDeferredName();
+        writeByte(DOUBLE);
+        long bits = Double.doubleToRawLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            writeByte((int) (bits >>> shift));
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(long value) throws IOException {
+        writeDeferredName();
+        writeByte(INT);
+        writeVarint((value << 1) ^ (value >> 63));
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Number value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return value(value.longValue());
+        }
+        if (value instanceof Double) {
+            return value(value.doubleValue());
+        }
+        if (value instanceof Float) {
+            return value(value.floatValue());
+        }
+        // BigDecimal, LazilyParsedNumber, ...: keep the exact text
+        String text = value.toString();
+        if (text.equals("NaN") || text.equals("Infinity") || text.equals("-Infinity")) {
+            checkFinite(Double.NaN);
+        }
+        writeDeferredName();
+        writeText(NUMBER_TEXT, text);
+        return this;
+    }
+
+    // Raw JSON text (e.g. a cached body) is re-encoded token by token. setLenient is
+    // deprecated from Gson 2.11, but its replacement is missing from gson-2.10.1
+    @Override
+    @SuppressWarnings("deprecation")
+    public JsonWriter jsonValue(String json) throws IOException {
+        if (json == null) {
+            return nullValue();
+        }
+        JsonReader in = new JsonReader(new StringReader(json));
+        in.setLenient(true);
+        copy(in);
+        return this;
+    }
+
+    private void copy(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        switch (token) {
+            case BEGIN_OBJECT -> {
+                in.beginObject();
+                beginObject();
+                while (in.hasNext()) {
+                    name(in.nextName());
+                    copy(in);
+                }
+                in.endObject();
+                endObject();
+            }
+            case BEGIN_ARRAY -> {
+                in.beginArray();
+                beginArray();
+                while (in.hasNext()) {
+                    copy(in);
+                }
+                in.endArray();
+                endArray();
+            }
+            case STRING -> value(in.nextString());
+            case NUMBER -> copyNumber(in.nextString());
+            case BOOLEAN -> value(in.nextBoolean());
+            case NULL -> {
+                // Explicit nulls in raw JSON are kept
+                in.nextNull();
+                writeDeferredName();
+                writeByte(NULL);
+            }
+            default -> throw new IllegalStateException("Unexpected " + token + " in JSON value");
+        }
+    }
+
+    private void copyNumber(String text) throws IOException {
+        if (text.indexOf('.') < 0 && text.indexOf('e') < 0 && text.indexOf('E') < 0) {
+            try {
+                value(Long.parseLong(text));
+                return;
+            } catch (NumberFormatException e) {
+                // Too large for a long: keep the text
+            }
+        } else {
+            double value = Double.parseDouble(text);
+            if (Double.toString(value).equals(text)) {
+                value(value);
+                return;
+            }
+        }
+        writeDeferredName();
+        writeText(NUMBER_TEXT, text);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    private void checkFinite(double value) {
+        if (!isLenient() && (Double.isNaN(value) || Double.isInfinite(value))) {
+            throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+        }
+    }
+
+    private void writeDeferredName() throws IOException {
+        if (deferredName != null) {
+            String name = deferredName;
+            deferredName = null;
+            writeString(name);
+        }
+    }
+
+    // Short strings are interned in the connection's table; later occurrences are sent by index
+    private void writeString(String value) throws IOException {
+        Integer index = strings.get(value);
+        if (index != null) {
+            writeByte(STRING_REF);
+            writeVarint(index);
+        } else if (value.length() <= MAX_INTERNED_LENGTH && strings.size() < MAX_TABLE_SIZE) {
+            strings.put(value, strings.size());
+            writeText(STRING_NEW, value);
+        } else {
+            writeText(STRING_INLINE, value);
+        }
+    }
+
+    private void writeText(int tag, String text) throws IOException {
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        writeByte(tag);
+        writeVarint(utf8.length);
+        writeBytes(utf8);
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        writeByte((int) value);
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (count == buffer.length) {
+            drain();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.length - count) {
+            drain();
+            if (bytes.length > buffer.length) {
+                out.write(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    private void drain() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.om.server;
+
+import java.util.function.Consumer;
+
+// A response body that is streamed as usual while its JSON text is captured, up to limit
+// chars, for the ResponseCache; onCaptured gets the text once all of it has been written
+record CachingBody(Object body, long limit, Consumer<String> onCaptured) {
+}
@@ -0,0 +1,196 @@
+package com.om.server;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+/**
+ * A JsonWriter that passes every token straight on to another writer and keeps a JSON
+ * text copy of what it wrote, up to a limit. Past the limit the copy is dropped and the
+ * tokens only go on, so a large body still streams and is never held in full.
+ */
+class CapturingJsonWriter extends JsonWriter {
+    private final JsonWriter out;
+    private final long limit;
+    private StringWriter text = new StringWriter();
+    private JsonWriter copy = new JsonWriter(text);
+
+    /**
+     * Takes out's settings, which the Gson writing through it has already applied; all
+     * server Gson instances share them, and JsonWriter's setters can't be intercepted.
+     * setLenient is deprecated from Gson 2.11, but its replacement is missing from the
+     * documented gson-2.10.1.
+     *
+     * @param limit the most chars of JSON text to keep
+     */
+    @SuppressWarnings("deprecation")
+    CapturingJsonWriter(JsonWriter out, long limit) {
+        super(Writer.nullWriter());
+        this.out = out;
+        this.limit = limit;
+        super.setLenient(out.isLenient());
+        super.setSerializeNulls(out.getSerializeNulls());
+        super.setHtmlSafe(out.isHtmlSafe());
+        copy.setLenient(out.isLenient());
+        copy.setSerializeNulls(out.getSerializeNulls());
+        copy.setHtmlSafe(out.isHtmlSafe());
+    }
+
+    // Everything written as JSON text, or null if it passed the limit
+    String captured() {
+        return copy == null ? null : text.toString();
+    }
+
+    @Override
+    public JsonWriter beginObject() throws IOException {
+        out.beginObject();
+        if (copy != null) {
+            copy.beginObject();
+            checkLimit();
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter endObject() throws IOException {
+        out.endObject();
+        if (copy != null) {
+            copy.endObject();
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter beginArray() throws IOException {
+        out.beginArray();
+        if (copy != null) {
+            copy.beginArray();
+            checkLimit();
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter endArray() throws IOException {
+        out.endArray();
+        if (copy != null) {
+            copy.endArray();
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter name(String name) throws IOException {
+        out.name(name);
+        if (copy != null) {
+            copy.name(name);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(String value) throws IOException {
+        out.value(value);
+        if (copy != null) {
+            copy.value(value);
+            checkLimit();
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter jsonValue(String value) throws IOException {
+        out.jsonValue(value);
+        if (copy != null) {
+            copy.jsonValue(value);
+            checkLimit();
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter nullValue() throws IOException {
+        out.nullValue();
+        if (copy != null) {
+            copy.nullValue();
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(boolean value) throws IOException {
+        out.value(value);
+        if (copy != null) {
+            copy.value(value);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Boolean value) throws IOException {
+        out.value(value);
+        if (copy != null) {
+            copy.value(value);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(float value) throws IOException {
+        out.value(value);
+        if (copy != null) {
+            copy.value(value);
+            checkLimit();
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(double value) throws IOException {
+        out.value(value);
+        if (copy != null) {
+            copy.value(value);
+            checkLimit();
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(long value) throws IOException {
+        out.value(value);
+        if (copy != null) {
+            copy.value(value);
+            checkLimit();
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Number value) throws IOException {
+        out.value(value);
+        if (copy != null) {
+            copy.value(value);
+            checkLimit();
+        }
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    // The response owns the underlying writer
+    @Override
+    public void close() {
+    }
+
+    private void checkLimit() {
+        if (text.getBuffer().length() > limit) {
+            copy = null;
+            text = null;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.om.server;
+
+import com.om.service.ChangeEvent;
+import com.om.util.ProductNames;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Fans committed changes out to subscribed connections.
+ *
+ * Each subscription has a filter and its own bounded queue. Publishing only offers to the
+ * queues, so a mutation never waits for a subscriber. A subscriber whose queue fills up
+ * has fallen behind: it is sent a final "lagged" response and closed, and must reload and
+ * subscribe again. Its events are never silently skipped. Thread-safe.
+ */
+public class ChangeFeed implements Consumer<ChangeEvent> {
+    // Events a subscriber may have waiting before it is considered lagging
+    private static final int QUEUE_CAPACITY = 1024;
+
+    // Writes one pushed response to the subscriber's connection
+    @FunctionalInterface
+    interface Sink {
+        void write(Response<?> response) throws IOException;
+    }
+
+    /**
+     * Which events a subscriber wants. Store ids and product names each narrow the feed
+     * when given; events about the graph carry neither and only pass when no filter is
+     * set. CLEARED always passes. Product names match ignoring case, as product lookups do.
+     */
+    record Filter(Set<Integer> storeIds, Set<String> productNames) {
+        Filter {
+            productNames = productNames.stream().map(ProductNames::key).collect(Collectors.toSet());
+        }
+
+        boolean matches(ChangeEvent event) {
+            if (event.type() == ChangeEvent.Type.CLEARED) {
+                return true;
+            }
+            if (!storeIds.isEmpty() && (event.storeId() == null || !storeIds.contains(event.storeId()))) {
+                return false;
+            }
+            return productNames.isEmpty()
+                    || (event.productName() != null && productNames.contains(ProductNames.key(event.productName())));
+        }
+    }
+
+    private final Map<Long, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final LongAdder published = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder lagged = new LongAdder();
+
+    @Override
+    public void accept(ChangeEvent event) {
+        published.increment();
+        for (Subscription subscription : subscriptions.values()) {
+            subscription.offer(event);
+        }
+    }
+
+    Subscription open(Filter filter) {
+        Subscription subscription = new Subscription(nextId.getAndIncrement(), filter);
+        subscriptions.put(subscription.id, subscription);
+        return subscription;
+    }
+
+    // Ends a subscription by id, e.g. for the unsubscribe action; false if it was not open
+    boolean close(long id) {
+        Subscription subscription = subscriptions.get(id);
+        if (subscription == null) {
+            return false;
+        }
+        subscription.close();
+        return true;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("subscriptions", subscriptions.size());
+        stats.put("published", published.sum());
+        stats.put("delivered", delivered.sum());
+        stats.put("lagged", lagged.sum());
+        return stats;
+    }
+
+    final class Subscription implements AutoCloseable {
+        // Queued to wake the pump when the subscription closes; compared by identity
+        private static final ChangeEvent CLOSED = new ChangeEvent(
+                ChangeEvent.Type.CLEARED, null, null, null, null, null, null, null, null, null);
+
+        private final long id;
+        private final Filter filter;
+        private final BlockingQueue<ChangeEvent> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY + 1);
+        private volatile boolean closed;
+        private volatile boolean lagging;
+
+        private Subscription(long id, Filter filter) {
+            this.id = id;
+            this.filter = filter;
+        }
+
+        long id() {
+            return id;
+        }
+
+        private synchronized void offer(ChangeEvent event) {
+            if (closed || lagging || !filter.matches(event)) {
+                return;
+            }
+            // The spare slot is kept for CLOSED, so close() can always wake the pump
+            if (queue.size() >= QUEUE_CAPACITY || !queue.offer(event)) {
+                lagging = true;
+                lagged.increment();
+                close();
+            }
+        }
+
+        /**
+         * Blocks, writing each event as a response tagged with requestId, until the
+         * subscription is closed or the sink fails; a lagging subscriber gets a final
+         * response with status "lagged". Closes the subscription when it returns.
+         */
+        void pump(Long requestId, Sink sink) throws IOException, InterruptedException {
+            try {
+                while (true) {
+                    ChangeEvent event = queue.take();
+                    if (event == CLOSED) {
+                        if (lagging) {
+                            Response<?> response = new Response<>(false,
+                                    "Subscriber fell behind and was dropped; reload and subscribe again", null);
+                            response.setStatus(Response.STATUS_LAGGED);
+                            response.setId(requestId);
+                            sink.write(response);
+                        }
+                        return;
+                    }
+                    Response<ChangeEvent> response = new Response<>(true, "Change", event);
+                    response.setId(requestId);
+                    sink.write(response);
+                    delivered.increment();
+                }
+            } finally {
+                close();
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            subscriptions.remove(id);
+            queue.offer(CLOSED);
+        }
+    }
+}
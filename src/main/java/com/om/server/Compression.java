@@ -0,0 +1,110 @@
+package com.om.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Optional zlib compression of framed responses.
+ *
+ * A client opts in per request with the header {@code accept-encoding: deflate}. The server
+ * then compresses the response if it grows past {@link #THRESHOLD} bytes; smaller responses
+ * are sent as plain JSON since compressing them saves little and costs a Deflater. A
+ * compressed message starts with the zlib header byte 0x78 and plain JSON with '{', so the
+ * client can tell them apart without any extra framing.
+ */
+public final class Compression {
+    public static final String HEADER = "accept-encoding";
+    public static final String DEFLATE = "deflate";
+    public static final int THRESHOLD = 4 * 1024;
+    // zlib CMF byte for deflate with a 32K window
+    private static final int ZLIB_HEADER = 0x78;
+
+    private Compression() {
+    }
+
+    // True if an accept-encoding header value lists deflate
+    public static boolean acceptsDeflate(String header) {
+        if (header == null) {
+            return false;
+        }
+        for (String encoding : header.split(",")) {
+            if (encoding.trim().equalsIgnoreCase(DEFLATE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Wraps out so that what is written is passed through as-is if it stays under the
+     * threshold, and deflated otherwise. Closing the returned stream closes out.
+     */
+    public static OutputStream deflateAboveThreshold(OutputStream out) {
+        return new ThresholdDeflaterOutputStream(out);
+    }
+
+    public static boolean isCompressed(byte[] message) {
+        return message.length > 0 && (message[0] & 0xFF) == ZLIB_HEADER;
+    }
+
+    public static byte[] inflate(byte[] message) throws IOException {
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(message))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static class ThresholdDeflaterOutputStream extends OutputStream {
+        private final OutputStream out;
+        private ByteArrayOutputStream pending = new ByteArrayOutputStream(THRESHOLD);
+        private Deflater deflater;
+        private DeflaterOutputStream deflating;
+
+        ThresholdDeflaterOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (deflating != null) {
+                deflating.write(b, off, len);
+                return;
+            }
+            pending.write(b, off, len);
+            if (pending.size() > THRESHOLD) {
+                // Speed over ratio: the JSON we send is repetitive enough that level 1 already shrinks it ~10x
+                deflater = new Deflater(Deflater.BEST_SPEED);
+                deflating = new DeflaterOutputStream(out, deflater, 8 * 1024);
+                pending.writeTo(deflating);
+                pending = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (deflating != null) {
+                    deflating.finish();
+                } else if (pending != null) {
+                    pending.writeTo(out);
+                    pending = null;
+                }
+                out.close();
+            } finally {
+                if (deflater != null) {
+                    deflater.end();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.om.server;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for one request, from the start of dispatch until its response is written.
+ * Costs a field check per request unless a recording has it enabled.
+ */
+@Name("com.om.Dispatch")
+@Label("Request Dispatch")
+@Category({"BuyNearMe", "Server"})
+@Description("An action run by the request dispatcher, including writing its response")
+@StackTrace(false)
+class DispatchEvent extends Event {
+    @Label("Action")
+    String action;
+
+    @Label("Request Size")
+    @DataAmount
+    long requestBytes;
+
+    @Label("Response Size")
+    @DataAmount
+    long responseBytes;
+
+    @Label("Success")
+    boolean success;
+
+    @Label("Status")
+    String status;
+
+    // Ends the event and commits it if a recording wants it; the fields are only filled in then
+    void finish(String action, long requestBytes, long responseBytes, Response<?> response) {
+        end();
+        if (shouldCommit()) {
+            this.action = action;
+            this.requestBytes = requestBytes;
+            this.responseBytes = responseBytes;
+            this.success = response.isSuccess();
+            this.status = response.getStatus();
+            commit();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.om.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Length-prefixed framing used by persistent connections.
+ *
+ * A framed connection starts with the single byte {@link #FRAMED_PREAMBLE}; legacy
+ * clients start directly with the JSON request ('{'). After the preamble every message
+ * in either direction is a sequence of chunks. Each chunk is a 4-byte big-endian header
+ * followed by the payload bytes: the low 31 bits hold the chunk length and the top bit
+ * ({@link #MORE_CHUNKS}) says another chunk of the same message follows. A message that
+ * fits in one chunk is therefore just a length plus the UTF-8 JSON payload, and large
+ * responses can be streamed without knowing their total size up front. Connections that
+ * start with {@link #BINARY_PREAMBLE} use the same framing with {@link BinaryJson} payloads.
+ */
+public final class Frames {
+    public static final int FRAMED_PREAMBLE = 0xF1;
+    // Framed connection whose payloads use the BinaryJson encoding instead of JSON text
+    public static final int BINARY_PREAMBLE = 0xB1;
+    public static final int MORE_CHUNKS = 0x80000000;
+    // Largest single chunk, and largest request the server will reassemble
+    public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+    // Chunk size used when streaming
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    private Frames() {
+    }
+
+    /**
+     * Reads one message, or returns null if the peer closed the connection
+     * cleanly between messages.
+     */
+    public static byte[] readFrame(DataInputStream in) throws IOException {
+        return readFrame(in, MAX_FRAME_SIZE);
+    }
+
+    /**
+     * Reads one message made of one or more chunks, rejecting messages larger than maxSize.
+     */
+    public static byte[] readFrame(DataInputStream in, int maxSize) throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        int header = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+        byte[] chunk = readChunk(in, header);
+        if ((header & MORE_CHUNKS) == 0) {
+            return chunk;
+        }
+
+        ByteArrayOutputStream message = new ByteArrayOutputStream(chunk.length * 2);
+        message.write(chunk);
+        do {
+            header = in.readInt();
+            chunk = readChunk(in, header);
+            if ((long) message.size() + chunk.length > maxSize) {
+                throw new IOException("Message exceeds " + maxSize + " bytes");
+            }
+            message.write(chunk);
+        } while ((header & MORE_CHUNKS) != 0);
+        return message.toByteArray();
+    }
+
+    private static byte[] readChunk(DataInputStream in, int header) throws IOException {
+        int length = header & ~MORE_CHUNKS;
+        checkLength(length);
+        byte[] payload = new byte[length];
+        try {
+            in.readFully(payload);
+        } catch (EOFException e) {
+            throw new EOFException("Connection closed in the middle of a frame");
+        }
+        return payload;
+    }
+
+    public static void writeFrame(DataOutputStream out, byte[] payload) throws IOException {
+        checkLength(payload.length);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.flush();
+    }
+
+    static void checkLength(int length) throws IOException {
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+    }
+
+    /**
+     * Streams one message as chunks of at most {@link #CHUNK_SIZE} bytes. Each full chunk is
+     * written with the {@link #MORE_CHUNKS} flag; {@link #close()} writes the final chunk.
+     * Closing does not close the underlying stream.
+     */
+    public static class FrameOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final byte[] buffer = new byte[4 + CHUNK_SIZE];
+        private int count;
+        private boolean closed;
+
+        public FrameOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == CHUNK_SIZE) {
+                emit(true);
+            }
+            buffer[4 + count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == CHUNK_SIZE) {
+                    emit(true);
+                }
+                int n = Math.min(len, CHUNK_SIZE - count);
+                System.arraycopy(b, off, buffer, 4 + count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        // Header and payload go out in one write so a sink sees whole chunks
+        private void emit(boolean more) throws IOException {
+            int header = more ? count | MORE_CHUNKS : count;
+            buffer[0] = (byte) (header >>> 24);
+            buffer[1] = (byte) (header >>> 16);
+            buffer[2] = (byte) (header >>> 8);
+            buffer[3] = (byte) header;
+            out.write(buffer, 0, 4 + count);
+            count = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                emit(false);
+                out.flush();
+            }
+        }
+    }
+}
@@ -1,171 +1,250 @@
 package com.om.server;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.om.controller.StoreController;
-import com.om.dm.Store;
-import com.om.dm.Product;
-import com.om.algorithm.Edge;
+import com.google.gson.JsonParseException;
 
 import java.io.*;
 import java.net.Socket;
-import java.util.List;
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
 
 public class HandleRequest implements Runnable {
+    // Maximum number of pipelined requests running at once for a single connection
+    private static final int MAX_PIPELINED_PER_CONNECTION = 64;
+
     private final Socket clientSocket;
-    private final StoreController storeController;
-    private final Gson gson;
+    private final RequestDispatcher dispatcher;
+    private final Executor pipelineExecutor;
+    // Server-wide cap on running requests; a permit is held while a request is dispatched, but not while
+    // its response is written, so a client that reads slowly doesn't use up the cap
+    private final Semaphore requests;
+    // Set by stopReading(); a connection cut off mid-request while draining is expected, not an error
+    private volatile boolean draining;
 
-    public HandleRequest(Socket socket, StoreController controller) {
+    /**
+     * @param pipelineExecutor runs framed requests that carry a correlation id, so they
+     *                         can complete out of order; must not share a bounded pool
+     *                         with connection handlers
+     * @param requests         shared by every connection of the server
+     */
+    public HandleRequest(Socket socket, RequestDispatcher dispatcher, Executor pipelineExecutor, Semaphore requests) {
         this.clientSocket = socket;
-        this.storeController = controller;
-        this.gson = new GsonBuilder().create();
+        this.dispatcher = dispatcher;
+        this.pipelineExecutor = pipelineExecutor;
+        this.requests = requests;
     }
 
     @Override
     public void run() {
         try (
-                BufferedReader reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-                PrintWriter writer = new PrintWriter(clientSocket.getOutputStream(), true)
+                Socket socket = clientSocket;
+                BufferedInputStream in = new BufferedInputStream(socket.getInputStream());
+                BufferedOutputStream out = new BufferedOutputStream(socket.getOutputStream())
         ) {
-            StringBuilder jsonBuilder = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null && !line.isEmpty()) {
-                jsonBuilder.append(line);
+            // Framed clients announce themselves with a preamble byte; anything else is a legacy request
+            in.mark(1);
+            int preamble = in.read();
+            if (preamble < 0) {
+                return; // Closed without sending anything, or the server is draining
+            }
+            if (preamble == Frames.FRAMED_PREAMBLE) {
+                serveFramed(new DataInputStream(in), new DataOutputStream(out), null);
+            } else if (preamble == Frames.BINARY_PREAMBLE) {
+                serveFramed(new DataInputStream(in), new DataOutputStream(out), new BinaryJson.Session());
+            } else {
+                in.reset();
+                serveLegacy(in, out);
+            }
+        } catch (Exception e) {
+            if (!draining) {
+                e.printStackTrace();
             }
+        }
+    }
 
-            Request<Map<String, Object>> request = gson.fromJson(jsonBuilder.toString(), Request.class);
+    // Stops taking requests for draining: requests already read are answered,
+    // then the handler sees end of stream and closes the connection
+    void stopReading() {
+        draining = true;
+        try {
+            clientSocket.shutdownInput();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
 
-            Map<String, String> headers = request.getHeaders();
-            if (headers == null || !headers.containsKey("action")) {
-                writer.println(gson.toJson(new Response<>(false, "Missing action header", null)));
-                return;
-            }
+    // Drops the connection, e.g. when draining timed out
+    void close() {
+        try {
+            clientSocket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
 
-            String action = headers.get("action");
-            Map<String, Object> body = request.getBody();
+    // One request per connection: JSON lines terminated by an empty line, answer, close
+    private void serveLegacy(InputStream in, OutputStream out) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
 
-            switch (action) {
-                // Store operations
-                case "store/add" -> {
-                    Store store = gson.fromJson(gson.toJson(body), Store.class);
-                    storeController.save(store);
-                    writer.println(gson.toJson(new Response<>(true, "Store added", null)));
-                }
-                case "store/delete" -> {
-                    Store store = gson.fromJson(gson.toJson(body), Store.class);
-                    storeController.delete(store);
-                    writer.println(gson.toJson(new Response<>(true, "Store deleted", null)));
-                }
-                case "store/get" -> {
-                    Store store = gson.fromJson(gson.toJson(body), Store.class);
-                    Store retrieved = storeController.get(store);
-                    writer.println(gson.toJson(new Response<>(true, "Store found", retrieved)));
-                }
-                case "store/getAll" -> {
-                    writer.println(gson.toJson(new Response<>(true, "All stores retrieved", storeController.getAll())));
-                }
-                case "store/update" -> {
-                    Store store = gson.fromJson(gson.toJson(body), Store.class);
-                    storeController.update(store);
-                    writer.println(gson.toJson(new Response<>(true, "Store updated", null)));
-                }
+        StringBuilder jsonBuilder = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            jsonBuilder.append(line);
+        }
 
-                // Product operations
-                case "store/addProduct" -> {
-                    int storeId = ((Number) body.get("storeId")).intValue();
-                    Product product = gson.fromJson(gson.toJson(body.get("product")), Product.class);
-                    storeController.addProduct(storeId, product);
-                    writer.println(gson.toJson(new Response<>(true, "Product added to store", null)));
-                }
-                case "store/removeProduct" -> {
-                    int storeId = ((Number) body.get("storeId")).intValue();
-                    String productName = (String) body.get("productName");
-                    storeController.removeProduct(storeId, productName);
-                    writer.println(gson.toJson(new Response<>(true, "Product removed from store", null)));
-                }
-                case "store/getProducts" -> {
-                    int storeId = ((Number) body.get("storeId")).intValue();
-                    writer.println(gson.toJson(new Response<>(true, "Products retrieved", storeController.getProducts(storeId))));
-                }
-                case "store/updateProduct" -> {
-                    int storeId = ((Number) body.get("storeId")).intValue();
-                    Product product = gson.fromJson(gson.toJson(body.get("product")), Product.class);
-                    storeController.updateProduct(storeId, product);
-                    writer.println(gson.toJson(new Response<>(true, "Product updated", null)));
-                }
-                case "store/findNearest" -> {
-                    String location = (String) body.get("location");
-                    String productName = (String) body.get("productName");
-                    Store nearestStore = storeController.findNearestStoreWithProduct(location, productName);
-                    writer.println(gson.toJson(new Response<>(true, "Nearest store found", nearestStore)));
-                }
-                case "store/findCheapest" -> {
-                    String productName = (String) body.get("productName");
-                    Store cheapestStore = storeController.findCheapestStoreWithProduct(productName);
-                    writer.println(gson.toJson(new Response<>(true, "Cheapest store found", cheapestStore)));
-                }
-                // Graph management operations
-                case "graph/addNode" -> {
-                    String nodeName = (String) body.get("nodeName");
-                    double x = ((Number) body.get("x")).doubleValue();
-                    double y = ((Number) body.get("y")).doubleValue();
-                    storeController.addNode(nodeName, x, y);
-                    writer.println(gson.toJson(new Response<>(true, "Node added successfully", null)));
-                }
-                case "graph/addEdge" -> {
-                    String from = (String) body.get("from");
-                    String to = (String) body.get("to");
-                    double weight = ((Number) body.get("weight")).doubleValue();
-                    storeController.addEdge(from, to, weight);
-                    writer.println(gson.toJson(new Response<>(true, "Edge added successfully", null)));
-                }
-                case "graph/removeNode" -> {
-                    String nodeName = (String) body.get("nodeName");
-                    storeController.removeNode(nodeName);
-                    writer.println(gson.toJson(new Response<>(true, "Node removed successfully", null)));
-                }
-                case "graph/getNodes" -> {
-                    List<String> nodes = storeController.getAllNodes();
-                    writer.println(gson.toJson(new Response<>(true, "Nodes retrieved", nodes)));
-                }
-                case "graph/getNodesWithCoordinates" -> {
-                    Map<String, double[]> nodesWithCoords = storeController.getAllNodesWithCoordinates();
-                    writer.println(gson.toJson(new Response<>(true, "Nodes with coordinates retrieved", nodesWithCoords)));
-                }
-                case "graph/removeEdge" -> {
-                    String from = (String) body.get("from");
-                    String to = (String) body.get("to");
-                    storeController.removeEdge(from, to);
-                    writer.println(gson.toJson(new Response<>(true, "Edge removed successfully", null)));
-                }
-                case "graph/getEdges" -> {
-                    Map<String, List<Edge>> edges = storeController.getAllEdges();
-                    writer.println(gson.toJson(new Response<>(true, "Edges retrieved", edges)));
-                }
-                case "graph/clearAllData" -> {
-                    storeController.clearAll();
-                    writer.println(gson.toJson(new Response<>(true, "All data cleared successfully", null)));
-                }
-                // Algorithm switching operations
-                case "algorithm/useAStar" -> {
-                    storeController.useAStarAlgorithm();
-                    writer.println(gson.toJson(new Response<>(true, "Switched to A* algorithm", null)));
+        String json = jsonBuilder.toString();
+        int requestBytes = json.getBytes(StandardCharsets.UTF_8).length;
+        long start = System.nanoTime();
+        String name;
+        DispatchEvent event = new DispatchEvent();
+        event.begin();
+        Response<?> response;
+        CountingOutputStream counted = new CountingOutputStream(out);
+        requests.acquireUninterruptibly();
+        try {
+            Request<Object> request = dispatcher.decode(json);
+            name = dispatcher.metricsName(request);
+            response = dispatcher.dispatch(request);
+        } catch (JsonParseException e) {
+            name = ServerMetrics.MALFORMED;
+            response = dispatcher.malformed(e);
+        } finally {
+            requests.release();
+        }
+
+        dispatcher.writeJson(response, counted);
+        counted.write('\n');
+        counted.flush();
+        dispatcher.metrics().record(name, start, requestBytes, counted.count(), response.isSuccess());
+        event.finish(name, requestBytes, counted.count(), response);
+    }
+
+    // Many requests per connection: length-prefixed frames until the client disconnects.
+    // Requests with an id run concurrently and are answered as soon as they finish;
+    // requests without one are answered in order before the next frame is read.
+    // With a binary session, payloads use the BinaryJson encoding instead of JSON text.
+    private void serveFramed(DataInputStream in, DataOutputStream out, BinaryJson.Session binary)
+            throws IOException, InterruptedException {
+        Semaphore pipelined = new Semaphore(MAX_PIPELINED_PER_CONNECTION);
+        Set<ChangeFeed.Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+        try {
+            byte[] frame;
+            while ((frame = Frames.readFrame(in)) != null) {
+                long start = System.nanoTime();
+                int requestBytes = frame.length;
+                Request<Object> request;
+                try {
+                    request = binary == null ? dispatcher.decode(frame) : dispatcher.decode(binary.reader(frame));
+                } catch (JsonParseException e) {
+                    Response<?> error = dispatcher.malformed(e);
+                    long written = writeResponse(out, error, false, binary);
+                    dispatcher.metrics().record(ServerMetrics.MALFORMED, start, requestBytes, written, false);
+                    if (binary != null) {
+                        // The string table may now be out of step with the client's
+                        break;
+                    }
+                    continue;
                 }
-                case "algorithm/useDijkstra" -> {
-                    storeController.useDijkstraAlgorithm();
-                    writer.println(gson.toJson(new Response<>(true, "Switched to Dijkstra algorithm", null)));
+
+                if (dispatcher.isSubscribe(request)) {
+                    subscribe(out, request, start, requestBytes, binary, subscriptions);
+                    continue;
                 }
-                case "algorithm/getCurrent" -> {
-                    String currentAlgorithm = storeController.getCurrentAlgorithm();
-                    writer.println(gson.toJson(new Response<>(true, "Current algorithm retrieved", currentAlgorithm)));
+                boolean deflate = dispatcher.acceptsDeflate(request);
+                if (request == null || request.getId() == null) {
+                    respond(out, request, start, requestBytes, deflate, binary);
+                    continue;
                 }
-                default -> writer.println(gson.toJson(new Response<>(false, "Unknown action: " + action, null)));
+
+                pipelined.acquire();
+                pipelineExecutor.execute(() -> {
+                    try {
+                        respond(out, request, start, requestBytes, deflate, binary);
+                    } catch (IOException e) {
+                        // Client disconnected; the reader will notice and stop
+                    } finally {
+                        pipelined.release();
+                    }
+                });
+            }
+        } finally {
+            // Subscriptions end with the connection; let in-flight requests finish before the socket is closed
+            for (ChangeFeed.Subscription subscription : subscriptions) {
+                subscription.close();
             }
+            pipelined.acquire(MAX_PIPELINED_PER_CONNECTION);
+        }
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+    // Answers a subscribe request, then pushes its events from a pipeline thread until the
+    // subscription or the connection is closed. The pusher holds no pipelining permit
+    private void subscribe(DataOutputStream out, Request<Object> request, long start, int requestBytes,
+                           BinaryJson.Session binary, Set<ChangeFeed.Subscription> subscriptions) throws IOException {
+        RequestDispatcher.Subscribed subscribed = dispatcher.subscribe(request);
+        long written = writeResponse(out, subscribed.response(), false, binary);
+        dispatcher.metrics().record(dispatcher.metricsName(request), start, requestBytes, written,
+                subscribed.response().isSuccess());
+        ChangeFeed.Subscription subscription = subscribed.subscription();
+        if (subscription == null) {
+            return;
+        }
+        subscriptions.add(subscription);
+        pipelineExecutor.execute(() -> {
+            try {
+                subscription.pump(request.getId(), event -> writeResponse(out, event, false, binary));
+            } catch (IOException e) {
+                // Client disconnected; the reader will notice and stop
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                subscriptions.remove(subscription);
+            }
+        });
+    }
+
+    private void respond(DataOutputStream out, Request<Object> request, long start, int requestBytes,
+                         boolean deflate, BinaryJson.Session binary) throws IOException {
+        DispatchEvent event = new DispatchEvent();
+        event.begin();
+        Response<?> response;
+        requests.acquireUninterruptibly();
+        try {
+            response = dispatcher.dispatch(request);
+        } finally {
+            requests.release();
+        }
+        long written = writeResponse(out, response, deflate, binary);
+        String name = dispatcher.metricsName(request);
+        dispatcher.metrics().record(name, start, requestBytes, written, response.isSuccess());
+        event.finish(name, requestBytes, written, response);
+    }
+
+    // Streams the response as chunked frames, compressed if the client asked for it and it is
+    // large enough; the lock keeps each response's chunks together and binary string tables in wire order.
+    // Returns the number of bytes written
+    private long writeResponse(DataOutputStream out, Response<?> response, boolean deflate,
+                               BinaryJson.Session binary) throws IOException {
+        synchronized (out) {
+            CountingOutputStream counted = new CountingOutputStream(out);
+            OutputStream frame = new Frames.FrameOutputStream(counted);
+            if (deflate) {
+                frame = Compression.deflateAboveThreshold(frame);
+            }
+            try {
+                if (binary == null) {
+                    dispatcher.writeJson(response, frame);
+                } else {
+                    dispatcher.writeJson(response, binary.writer(frame));
+                }
+            } catch (RuntimeException e) {
+                // Part of the response may already be on the wire, so the stream can't be resynchronized
+                clientSocket.close();
+                throw new IOException("Failed to serialize response", e);
+            }
+            frame.close();
+            return counted.count();
         }
     }
 }
@@ -0,0 +1,268 @@
+package com.om.server;
+
+import com.google.gson.JsonParseException;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Optional HTTP/1.1 front end for load balancers and caching proxies, which can reuse
+ * keep-alive connections but can't pool the custom socket protocol.
+ *
+ * {@code POST /store/getAll} runs the action store/getAll through the same
+ * {@link RequestDispatcher} the socket servers use. The request body is the action's
+ * body on its own (no id/headers envelope) and may be empty. HTTP headers are passed
+ * through as request headers, so {@code fields} and {@code deadline-ms} work as usual,
+ * and {@code Accept-Encoding: deflate} gets a deflated body above the usual threshold.
+ * The response body is the same JSON envelope; the HTTP status adds 503 (overloaded,
+ * with Retry-After), 504 (deadline exceeded), 404 (unknown action), 400 (malformed body)
+ * and 405 (not a POST). Exchanges run on virtual threads.
+ */
+public class HttpGateway implements ManagedServer {
+    private static final int DEFAULT_BACKLOG = 1024;
+    // Bodies up to this size are buffered and sent with a Content-Length; larger ones are streamed chunked
+    private static final int BUFFERED_BODY_SIZE = 64 * 1024;
+    private static final String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+
+    static {
+        // The JDK server flushes response headers before the body; without TCP_NODELAY, Nagle's
+        // algorithm and the client's delayed ACK add ~40ms to every keep-alive response.
+        // Read once when the first HttpServer is created, so it must be set before that
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final int port;
+    private final int backlog;
+    private final RequestDispatcher dispatcher;
+
+    // Lifecycle: stop() counts down stopRequested, run() drains, then counts down terminated
+    private final CountDownLatch stopRequested = new CountDownLatch(1);
+    private final CountDownLatch terminated = new CountDownLatch(1);
+    private volatile long drainTimeoutNanos;
+
+    public HttpGateway(int port, RequestDispatcher dispatcher) {
+        this(port, DEFAULT_BACKLOG, dispatcher);
+    }
+
+    /**
+     * @param dispatcher usually shared with the socket server, so both front ends see the same data
+     */
+    public HttpGateway(int port, int backlog, RequestDispatcher dispatcher) {
+        if (backlog <= 0) {
+            throw new IllegalArgumentException("Backlog must be positive");
+        }
+        if (dispatcher == null) {
+            throw new IllegalArgumentException("Dispatcher cannot be null");
+        }
+        this.port = port;
+        this.backlog = backlog;
+        this.dispatcher = dispatcher;
+    }
+
+    @Override
+    public void run() {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            if (stopRequested.getCount() == 0) {
+                return; // stop() ran before the server started
+            }
+            HttpServer server = HttpServer.create(new InetSocketAddress(port), backlog);
+            server.setExecutor(executor);
+            server.createContext("/", this::handle);
+            server.start();
+            dispatcher.setReady(true);
+            System.out.println("HTTP gateway started on port " + port);
+
+            stopRequested.await();
+            // Stops accepting and waits up to the timeout for exchanges in progress;
+            // closing the executor then waits for any handler still writing
+            long seconds = TimeUnit.NANOSECONDS.toSeconds(drainTimeoutNanos + TimeUnit.SECONDS.toNanos(1) - 1);
+            server.stop((int) Math.min(Integer.MAX_VALUE, seconds));
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            dispatcher.flush();
+            terminated.countDown();
+        }
+    }
+
+    @Override
+    public boolean isReady() {
+        return stopRequested.getCount() > 0 && dispatcher.isReady();
+    }
+
+    @Override
+    public void stop(long timeout, TimeUnit unit) throws InterruptedException {
+        dispatcher.setReady(false);
+        drainTimeoutNanos = unit.toNanos(timeout);
+        stopRequested.countDown();
+        terminated.await();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            long start = System.nanoTime();
+            byte[] payload = readBody(exchange.getRequestBody());
+            if (payload == null) {
+                exchange.sendResponseHeaders(413, -1);
+                return;
+            }
+
+            DispatchEvent event = new DispatchEvent();
+            event.begin();
+            String name;
+            Request<Object> request = null;
+            Response<?> response;
+            try {
+                request = dispatcher.decode(headersOf(exchange), payload);
+                name = dispatcher.metricsName(request);
+                response = dispatcher.dispatch(request);
+            } catch (JsonParseException e) {
+                name = ServerMetrics.MALFORMED;
+                response = dispatcher.malformed(e);
+            }
+
+            int status = statusOf(name, response);
+            if (status == 503) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+            }
+            exchange.getResponseHeaders().set("Content-Type", JSON_CONTENT_TYPE);
+            CountingOutputStream counted = new CountingOutputStream(exchange.getResponseBody());
+            try (OutputStream body = new ResponseBody(exchange, counted, status, dispatcher.acceptsDeflate(request))) {
+                dispatcher.writeJson(response, body);
+            }
+            dispatcher.metrics().record(name, start, payload.length, counted.count(), response.isSuccess());
+            event.finish(name, payload.length, counted.count(), response);
+        }
+    }
+
+    // The whole request body, or null if it is larger than a frame would be allowed to be
+    private static byte[] readBody(InputStream in) throws IOException {
+        byte[] payload = in.readNBytes(Frames.MAX_FRAME_SIZE + 1);
+        return payload.length > Frames.MAX_FRAME_SIZE ? null : payload;
+    }
+
+    // HTTP headers as request headers: lower-case names, first value; the action comes from the path
+    private static Map<String, String> headersOf(HttpExchange exchange) {
+        Map<String, String> headers = new HashMap<>();
+        for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+            if (!header.getValue().isEmpty()) {
+                headers.put(header.getKey().toLowerCase(Locale.ROOT), header.getValue().get(0));
+            }
+        }
+        headers.put("action", exchange.getRequestURI().getPath().substring(1));
+        return headers;
+    }
+
+    private static int statusOf(String name, Response<?> response) {
+        if (Response.STATUS_OVERLOADED.equals(response.getStatus())) {
+            return 503;
+        }
+        if (Response.STATUS_TIMEOUT.equals(response.getStatus())) {
+            return 504;
+        }
+        return switch (name) {
+            case ServerMetrics.MALFORMED -> 400;
+            case ServerMetrics.UNKNOWN_ACTION, ServerMetrics.NO_ACTION -> 404;
+            // Failed actions keep 200, like on the socket protocol; the body says what went wrong
+            default -> 200;
+        };
+    }
+
+    /**
+     * Buffers the start of the body, because the response headers have to go out first:
+     * a small body is sent with a Content-Length, a larger one is streamed chunked and,
+     * if the client accepts it, deflated. Closing it does not close out.
+     */
+    private static final class ResponseBody extends OutputStream {
+        private final HttpExchange exchange;
+        private final OutputStream out;
+        private final int status;
+        private final boolean deflate;
+        private final int limit;
+        private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        private OutputStream streaming;
+        private Deflater deflater;
+
+        ResponseBody(HttpExchange exchange, OutputStream out, int status, boolean deflate) {
+            this.exchange = exchange;
+            this.out = out;
+            this.status = status;
+            this.deflate = deflate;
+            this.limit = deflate ? Compression.THRESHOLD : BUFFERED_BODY_SIZE;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (streaming != null) {
+                streaming.write(b, off, len);
+                return;
+            }
+            pending.write(b, off, len);
+            if (pending.size() > limit) {
+                Headers headers = exchange.getResponseHeaders();
+                headers.set("Vary", "Accept-Encoding");
+                if (deflate) {
+                    headers.set("Content-Encoding", Compression.DEFLATE);
+                }
+                exchange.sendResponseHeaders(status, 0);
+                if (deflate) {
+                    // Same level as framed responses, see Compression
+                    deflater = new Deflater(Deflater.BEST_SPEED);
+                    streaming = new DeflaterOutputStream(out, deflater, 8 * 1024);
+                } else {
+                    streaming = out;
+                }
+                pending.writeTo(streaming);
+                pending = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (streaming != null) {
+                try {
+                    streaming.close();
+                } finally {
+                    if (deflater != null) {
+                        deflater.end();
+                    }
+                }
+                return;
+            }
+            exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+            exchange.sendResponseHeaders(status, pending.size() == 0 ? -1 : pending.size());
+            pending.writeTo(out);
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package com.om.server;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.om.algorithm.Edge;
+import com.om.dm.Page;
+import com.om.dm.Product;
+import com.om.dm.Store;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Hand-written Gson adapters for the hot data types and the shared server Gson instance.
+ *
+ * The adapters read and write fields directly instead of going through reflection, and
+ * produce the same JSON shape Gson's reflective adapters did, so clients see no change.
+ * Gson and the adapters are stateless and safe to share between threads.
+ *
+ * Store output can be narrowed to a subset of fields (the "fields" request header);
+ * each distinct projection gets its own Gson instance, cached here.
+ */
+public final class JsonAdapters {
+    // Store fields a "fields" projection may name, in the order they are written
+    private static final List<String> STORE_FIELDS = List.of(
+            "id", "name", "latitude", "longitude", "products", "locationId", "pathToStore", "distanceToStore");
+    private static final int ALL_STORE_FIELDS = (1 << STORE_FIELDS.size()) - 1;
+
+    public static final TypeAdapter<Product> PRODUCT = new ProductAdapter().nullSafe();
+    public static final TypeAdapter<Store> STORE = new StoreAdapter(ALL_STORE_FIELDS).nullSafe();
+    public static final TypeAdapter<Edge> EDGE = new EdgeAdapter().nullSafe();
+    // Server side only: already-serialized bodies are copied to the output as they are
+    private static final TypeAdapter<RawJson> RAW_JSON = new TypeAdapter<>() {
+        @Override
+        public void write(JsonWriter out, RawJson value) throws IOException {
+            out.jsonValue(value == null ? null : value.json());
+        }
+
+        @Override
+        public RawJson read(JsonReader in) {
+            throw new UnsupportedOperationException("RawJson is write-only");
+        }
+    };
+
+    public static final Gson GSON = createGson(STORE);
+
+    // One Gson per Store projection, built on first use; there are at most 2^8 of them
+    private static final Gson[] PROJECTIONS = new Gson[ALL_STORE_FIELDS + 1];
+
+    private JsonAdapters() {
+    }
+
+    private static Gson createGson(TypeAdapter<Store> storeAdapter) {
+        return new GsonBuilder()
+                .registerTypeAdapter(Product.class, PRODUCT)
+                .registerTypeAdapter(Store.class, storeAdapter)
+                .registerTypeAdapter(Edge.class, EDGE)
+                .registerTypeAdapter(RawJson.class, RAW_JSON)
+                .registerTypeAdapterFactory(new CachingBodyAdapterFactory())
+                .registerTypeAdapterFactory(new ResponseAdapterFactory())
+                .registerTypeAdapterFactory(new PageAdapterFactory())
+                .create();
+    }
+
+    // Rejects names that are not Store fields
+    static void checkStoreFields(Set<String> fields) {
+        storeFieldMask(fields);
+    }
+
+    // Gson that writes only the given Store fields; null means all of them
+    static Gson forStoreFields(Set<String> fields) {
+        int mask = fields == null ? ALL_STORE_FIELDS : storeFieldMask(fields);
+        if (mask == ALL_STORE_FIELDS) {
+            return GSON;
+        }
+        Gson gson = PROJECTIONS[mask];
+        if (gson == null) {
+            // Racing threads may each build one; they are equivalent, so the last write wins harmlessly
+            gson = createGson(new StoreAdapter(mask).nullSafe());
+            PROJECTIONS[mask] = gson;
+        }
+        return gson;
+    }
+
+    private static int storeFieldMask(Set<String> fields) {
+        int mask = 0;
+        for (String field : fields) {
+            int index = STORE_FIELDS.indexOf(field);
+            if (index < 0) {
+                throw new IllegalArgumentException("Unknown field: " + field);
+            }
+            mask |= 1 << index;
+        }
+        return mask;
+    }
+
+    // Reads a JSON string, tolerating null
+    static String readString(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+
+    static List<String> readStringList(JsonReader in) throws IOException {
+        List<String> values = new ArrayList<>();
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return values;
+        }
+        in.beginArray();
+        while (in.hasNext()) {
+            values.add(readString(in));
+        }
+        in.endArray();
+        return values;
+    }
+
+    private static class ProductAdapter extends TypeAdapter<Product> {
+        @Override
+        public void write(JsonWriter out, Product product) throws IOException {
+            out.beginObject();
+            out.name("id").value(product.getId());
+            if (product.getName() != null) {
+                out.name("name").value(product.getName());
+            }
+            out.name("price").value(product.getPrice());
+            out.endObject();
+        }
+
+        @Override
+        public Product read(JsonReader in) throws IOException {
+            Product product = new Product();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id" -> product.setId(in.nextInt());
+                    case "name" -> product.setName(readString(in));
+                    case "price" -> product.setPrice(in.nextDouble());
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            return product;
+        }
+    }
+
+    /**
+     * Writes the Store fields selected by a bit mask over {@link #STORE_FIELDS}.
+     */
+    private static class StoreAdapter extends TypeAdapter<Store> {
+        private static final int ID = 1;
+        private static final int NAME = 1 << 1;
+        private static final int LATITUDE = 1 << 2;
+        private static final int LONGITUDE = 1 << 3;
+        private static final int PRODUCTS = 1 << 4;
+        private static final int LOCATION_ID = 1 << 5;
+        private static final int PATH_TO_STORE = 1 << 6;
+        private static final int DISTANCE_TO_STORE = 1 << 7;
+
+        private final int fields;
+
+        StoreAdapter(int fields) {
+            this.fields = fields;
+        }
+
+        private boolean has(int field) {
+            return (fields & field) != 0;
+        }
+
+        @Override
+        public void write(JsonWriter out, Store store) throws IOException {
+            out.beginObject();
+            if (has(ID)) {
+                out.name("id").value(store.getId());
+            }
+            if (has(NAME) && store.getName() != null) {
+                out.name("name").value(store.getName());
+            }
+            if (has(LATITUDE)) {
+                out.name("latitude").value(store.getLatitude());
+            }
+            if (has(LONGITUDE)) {
+                out.name("longitude").value(store.getLongitude());
+            }
+            if (has(PRODUCTS) && store.getProducts() != null) {
+                out.name("products").beginArray();
+                for (Product product : store.getProducts()) {
+                    PRODUCT.write(out, product);
+                }
+                out.endArray();
+            }
+            if (has(LOCATION_ID) && store.getLocationId() != null) {
+                out.name("locationId").value(store.getLocationId());
+            }
+            if (has(PATH_TO_STORE) && store.getPathToStore() != null) {
+                out.name("pathToStore").beginArray();
+                for (String node : store.getPathToStore()) {
+                    out.value(node);
+                }
+                out.endArray();
+            }
+            if (has(DISTANCE_TO_STORE)) {
+                out.name("distanceToStore").value(store.getDistanceToStore());
+            }
+            out.endObject();
+        }
+
+        @Override
+        public Store read(JsonReader in) throws IOException {
+            Store store = new Store();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id" -> store.setId(in.nextInt());
+                    case "name" -> store.setName(readString(in));
+                    case "latitude" -> store.setLatitude(in.nextDouble());
+                    case "longitude" -> store.setLongitude(in.nextDouble());
+                    case "products" -> store.setProducts(readProducts(in));
+                    case "locationId" -> store.setLocationId(readString(in));
+                    case "pathToStore" -> store.setPathToStore(readStringList(in));
+                    case "distanceToStore" -> store.setDistanceToStore(in.nextDouble());
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            return store;
+        }
+
+        private static List<Product> readProducts(JsonReader in) throws IOException {
+            List<Product> products = new ArrayList<>();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return products;
+            }
+            in.beginArray();
+            while (in.hasNext()) {
+                products.add(PRODUCT.read(in));
+            }
+            in.endArray();
+            return products;
+        }
+    }
+
+    private static class EdgeAdapter extends TypeAdapter<Edge> {
+        @Override
+        public void write(JsonWriter out, Edge edge) throws IOException {
+            out.beginObject();
+            out.name("fromNode").value(edge.getFromNode());
+            out.name("toNode").value(edge.getToNode());
+            out.name("weight").value(edge.getWeight());
+            out.endObject();
+        }
+
+        @Override
+        public Edge read(JsonReader in) throws IOException {
+            String from = null;
+            String to = null;
+            double weight = 0;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "fromNode" -> from = readString(in);
+                    case "toNode" -> to = readString(in);
+                    case "weight" -> weight = in.nextDouble();
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            return new Edge(from, to, weight);
+        }
+    }
+
+    /**
+     * Writes a page as {"items": [...], "nextCursor": "..."}; the cursor is left out on the last page.
+     */
+    private static class PageAdapterFactory implements TypeAdapterFactory {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            if (type.getRawType() != Page.class) {
+                return null;
+            }
+            TypeAdapter<T> delegate = gson.getDelegateAdapter(this, type);
+            return (TypeAdapter<T>) new TypeAdapter<Page<?>>() {
+                @Override
+                public void write(JsonWriter out, Page<?> page) throws IOException {
+                    if (page == null) {
+                        out.nullValue();
+                        return;
+                    }
+                    out.beginObject();
+                    out.name("items").beginArray();
+                    for (Object item : page.getItems()) {
+                        if (item == null) {
+                            out.nullValue();
+                        } else {
+                            gson.toJson(item, item.getClass(), out);
+                        }
+                    }
+                    out.endArray();
+                    if (page.getNextCursor() != null) {
+                        out.name("nextCursor").value(page.getNextCursor());
+                    }
+                    out.endObject();
+                }
+
+                @Override
+                public Page<?> read(JsonReader in) throws IOException {
+                    return (Page<?>) delegate.read(in);
+                }
+            };
+        }
+    }
+
+    /**
+     * Server side only: writes a {@link CachingBody}'s body with this Gson (so with its
+     * field projection) through a {@link CapturingJsonWriter}, and hands over the captured
+     * text if the whole body fit.
+     */
+    private static class CachingBodyAdapterFactory implements TypeAdapterFactory {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            if (type.getRawType() != CachingBody.class) {
+                return null;
+            }
+            return (TypeAdapter<T>) new TypeAdapter<CachingBody>() {
+                @Override
+                public void write(JsonWriter out, CachingBody value) throws IOException {
+                    Object body = value.body();
+                    CapturingJsonWriter capturing = new CapturingJsonWriter(out, value.limit());
+                    gson.toJson(body, body.getClass(), capturing);
+                    String captured = capturing.captured();
+                    if (captured != null) {
+                        value.onCaptured().accept(captured);
+                    }
+                }
+
+                @Override
+                public CachingBody read(JsonReader in) {
+                    throw new UnsupportedOperationException("CachingBody is write-only");
+                }
+            };
+        }
+    }
+
+    /**
+     * Writes responses without reflection; the body is written with the adapter for its
+     * runtime type, through the Gson for the response's field projection if it has one
+     * (otherwise the enclosing one, so batch entries inherit the batch's projection).
+     * Reading (used by clients) falls back to Gson's own adapter so the declared body
+     * type is honored.
+     */
+    private static class ResponseAdapterFactory implements TypeAdapterFactory {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            if (!Response.class.isAssignableFrom(type.getRawType())) {
+                return null;
+            }
+            TypeAdapter<T> delegate = gson.getDelegateAdapter(this, type);
+            return (TypeAdapter<T>) new TypeAdapter<Response<?>>() {
+                @Override
+                public void write(JsonWriter out, Response<?> response) throws IOException {
+                    if (response == null) {
+                        out.nullValue();
+                        return;
+                    }
+                    out.beginObject();
+                    if (response.getId() != null) {
+                        out.name("id").value(response.getId());
+                    }
+                    out.name("success").value(response.isSuccess());
+                    if (response.getMessage() != null) {
+                        out.name("message").value(response.getMessage());
+                    }
+                    if (response.getStatus() != null) {
+                        out.name("status").value(response.getStatus());
+                    }
+                    Object body = response.getBody();
+                    if (body != null) {
+                        out.name("body");
+                        Gson bodyGson = response.getFields() == null ? gson : forStoreFields(response.getFields());
+                        bodyGson.toJson(body, body.getClass(), out);
+                    }
+                    out.endObject();
+                }
+
+                @Override
+                public Response<?> read(JsonReader in) throws IOException {
+                    return (Response<?>) delegate.read(in);
+                }
+            };
+        }
+    }
+}
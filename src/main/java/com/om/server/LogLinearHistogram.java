@@ -0,0 +1,105 @@
+package com.om.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative longs (latencies in microseconds, sizes in bytes).
+ *
+ * Buckets are log-linear: each power of two is split into 8 equal sub-buckets, so a
+ * reported percentile is at most 12.5% above the true value whatever the magnitude, and
+ * the whole range up to 2^40 fits in a few hundred counters. Recording is one array
+ * increment plus a few adders, safe to call from any number of threads.
+ */
+public class LogLinearHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * The smallest recorded value such that at least the given fraction of values are no
+     * larger, rounded up to the top of its bucket; 0 if nothing was recorded.
+     */
+    public long percentile(double fraction) {
+        long total = 0;
+        long[] snapshot = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValueIn(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    // Count, mean, common percentiles and max, for the admin/metrics action
+    public Map<String, Object> summary() {
+        long n = count.sum();
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", n);
+        summary.put("mean", n == 0 ? 0 : sum.sum() / n);
+        summary.put("p50", percentile(0.50));
+        summary.put("p90", percentile(0.90));
+        summary.put("p99", percentile(0.99));
+        summary.put("p999", percentile(0.999));
+        summary.put("max", max.get());
+        return summary;
+    }
+
+    // Values below SUB_BUCKETS get a bucket each; above that, 8 buckets per power of two
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+    }
+}
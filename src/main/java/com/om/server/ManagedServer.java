@@ -0,0 +1,21 @@
+package com.om.server;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A server with a lifecycle: {@link #run()} serves until {@link #stop} is called, then
+ * drains and returns.
+ */
+public interface ManagedServer extends Runnable {
+
+    // True once the server is listening, until it starts draining; also reported by admin/ready
+    boolean isReady();
+
+    /**
+     * Stops accepting connections and stops reading new requests from open ones, lets
+     * in-flight requests finish and write their responses, closes whatever is still open
+     * after the timeout, flushes pending persistence, and returns once {@link #run()} has.
+     * Safe to call from a shutdown hook and more than once.
+     */
+    void stop(long timeout, TimeUnit unit) throws InterruptedException;
+}
@@ -0,0 +1,721 @@
+package com.om.server;
+
+import com.google.gson.JsonParseException;
+import com.om.controller.StoreController;
+import com.om.dao.DaoFileImpl;
+import com.om.service.StoreService;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking alternative to {@link Server}.
+ *
+ * A few event-loop threads own all sockets: they read bytes, split them into requests
+ * (framed or legacy, same wire format as {@link HandleRequest}) and decode the JSON.
+ * Actions run on a separate worker pool through the shared {@link RequestDispatcher}.
+ * Workers stream each response as it is serialized, handing 64KB chunks back to the owning
+ * event loop for writing; a per-connection byte budget stops a slow reader from making a
+ * large response pile up in memory, and a client that makes no room in it for a couple of
+ * seconds is dropped. An idle connection costs a buffer and a selection key, not a parked
+ * thread.
+ */
+public class NioServer implements ManagedServer {
+    private static final int PORT = 12345;
+    private static final int DEFAULT_BACKLOG = 1024;
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    // Stop reading from a connection that has this many requests queued or running
+    private static final int MAX_PENDING_PER_CONNECTION = 64;
+    // Response bytes a connection may have queued but not yet written before workers wait
+    private static final int MAX_QUEUED_WRITE_BYTES = 1024 * 1024;
+    // How long a worker waits for a client that stopped reading before dropping it. Short, since
+    // the worker is one of a small fixed pool: a few stalled clients must not hold up every request
+    private static final long WRITE_STALL_TIMEOUT_MILLIS = 2000;
+    // How long the accepting thread backs off after accept() fails
+    private static final long ACCEPT_RETRY_MILLIS = 100;
+
+    private final int port;
+    private final int eventLoopCount;
+    private final int workerCount;
+    private final int backlog;
+    private final Supplier<RequestDispatcher> dispatcherFactory;
+
+    // Lifecycle: stop() closes the listening channel and run() drains, then counts down terminated.
+    // Each open connection holds one permit of openConnections
+    private final Semaphore openConnections = new Semaphore(Integer.MAX_VALUE);
+    private final CountDownLatch terminated = new CountDownLatch(1);
+    private volatile ServerSocketChannel serverChannel;
+    private volatile RequestDispatcher dispatcher;
+    private volatile boolean stopping;
+    private volatile long drainTimeoutNanos;
+
+    public NioServer() {
+        this(PORT, Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+                Runtime.getRuntime().availableProcessors() * 2, DEFAULT_BACKLOG);
+    }
+
+    public NioServer(int port, int eventLoopCount, int workerCount, int backlog) {
+        this(port, eventLoopCount, workerCount, backlog, AdmissionController.unlimited());
+    }
+
+    public NioServer(int port, int eventLoopCount, int workerCount, int backlog, AdmissionController admission) {
+        this(port, eventLoopCount, workerCount, backlog, ownDispatcher(admission));
+    }
+
+    /**
+     * @param dispatcher shared with other front ends, e.g. an {@link HttpGateway}
+     */
+    public NioServer(int port, int eventLoopCount, int workerCount, int backlog, RequestDispatcher dispatcher) {
+        this(port, eventLoopCount, workerCount, backlog, dispatcher == null ? null : () -> dispatcher);
+    }
+
+    private NioServer(int port, int eventLoopCount, int workerCount, int backlog,
+                      Supplier<RequestDispatcher> dispatcherFactory) {
+        if (eventLoopCount <= 0 || workerCount <= 0) {
+            throw new IllegalArgumentException("Event loop and worker counts must be positive");
+        }
+        if (backlog <= 0) {
+            throw new IllegalArgumentException("Backlog must be positive");
+        }
+        if (dispatcherFactory == null) {
+            throw new IllegalArgumentException("Dispatcher cannot be null");
+        }
+        this.port = port;
+        this.eventLoopCount = eventLoopCount;
+        this.workerCount = workerCount;
+        this.backlog = backlog;
+        this.dispatcherFactory = dispatcherFactory;
+    }
+
+    @Override
+    public void run() {
+        RequestDispatcher dispatcher = dispatcherFactory.get();
+        this.dispatcher = dispatcher;
+
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open();
+             ExecutorService workers = Executors.newFixedThreadPool(workerCount)) {
+            this.serverChannel = serverChannel;
+            if (stopping) {
+                return; // stop() ran before the channel existed
+            }
+            EventLoop[] loops = new EventLoop[eventLoopCount];
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new EventLoop(dispatcher, workers, openConnections);
+                Thread thread = new Thread(loops[i], "nio-event-loop-" + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+
+            // The accepting thread blocks in accept() and spreads connections round-robin over the loops
+            serverChannel.bind(new InetSocketAddress(port), backlog);
+            dispatcher.setReady(true);
+            System.out.println("NIO server started on port " + port + " (" + eventLoopCount
+                    + " event loops, " + workerCount + " workers)");
+
+            int next = 0;
+            while (!stopping) {
+                SocketChannel channel;
+                try {
+                    channel = serverChannel.accept();
+                } catch (IOException e) {
+                    if (stopping) {
+                        break; // stop() closed the channel
+                    }
+                    if (!serverChannel.isOpen()) {
+                        throw e;
+                    }
+                    // E.g. out of file descriptors: keep serving the open connections and try again shortly
+                    e.printStackTrace();
+                    Thread.sleep(ACCEPT_RETRY_MILLIS);
+                    continue;
+                }
+                try {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                } catch (IOException e) {
+                    // Typically a client that reset right after connecting; lose it, not the server
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                        // Nothing left to release
+                    }
+                    continue;
+                }
+                // Taken here rather than on the loop, so a drain that starts next can't miss this connection
+                openConnections.acquireUninterruptibly();
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+            }
+            drain(loops);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Not accepting any more, whatever ended the loop
+            dispatcher.setReady(false);
+            // Workers are closed by now, so no request is still running
+            dispatcher.flush();
+            terminated.countDown();
+        }
+    }
+
+    // A dispatcher over the data files, built in run() so constructing a server stays cheap
+    private static Supplier<RequestDispatcher> ownDispatcher(AdmissionController admission) {
+        if (admission == null) {
+            throw new IllegalArgumentException("Admission controller cannot be null");
+        }
+        return () -> new RequestDispatcher(new StoreController(new StoreService(new DaoFileImpl())), admission);
+    }
+
+    private void drain(EventLoop[] loops) throws InterruptedException {
+        for (EventLoop loop : loops) {
+            loop.drain();
+        }
+        if (!openConnections.tryAcquire(Integer.MAX_VALUE, drainTimeoutNanos, TimeUnit.NANOSECONDS)) {
+            System.out.println("Drain timed out, closing the remaining connections");
+        }
+        for (EventLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+
+    @Override
+    public boolean isReady() {
+        RequestDispatcher current = dispatcher;
+        return current != null && current.isReady();
+    }
+
+    @Override
+    public void stop(long timeout, TimeUnit unit) throws InterruptedException {
+        RequestDispatcher current = dispatcher;
+        if (current != null) {
+            current.setReady(false);
+        }
+        drainTimeoutNanos = unit.toNanos(timeout);
+        stopping = true;
+        ServerSocketChannel channel = serverChannel;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+        // Requests still running after the drain timeout are allowed to finish, so a write is never cut short
+        terminated.await();
+    }
+
+    /**
+     * A selector thread. All connection state is touched only from this thread;
+     * workers post their results back through {@link #execute(Runnable)}.
+     */
+    private static class EventLoop implements Runnable {
+        private final Selector selector;
+        private final RequestDispatcher dispatcher;
+        private final ExecutorService workers;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final Semaphore openConnections;
+
+        EventLoop(RequestDispatcher dispatcher, ExecutorService workers, Semaphore openConnections) throws IOException {
+            this.selector = Selector.open();
+            this.dispatcher = dispatcher;
+            this.workers = workers;
+            this.openConnections = openConnections;
+        }
+
+        // The caller has taken an openConnections permit for the channel
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new Connection(channel, key));
+                } catch (ClosedChannelException e) {
+                    // Client went away before we got to it
+                    openConnections.release();
+                }
+            });
+        }
+
+        // Stop reading on every connection; each closes once what it has read is answered
+        void drain() {
+            execute(() -> {
+                for (SelectionKey key : selector.keys()) {
+                    ((Connection) key.attachment()).drain();
+                }
+            });
+        }
+
+        // Close whatever is still open and end the loop
+        void shutdown() {
+            execute(() -> {
+                for (SelectionKey key : selector.keys()) {
+                    ((Connection) key.attachment()).close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    if (!selector.isOpen()) {
+                        return; // shut down by one of the tasks
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWritable();
+                            }
+                        } catch (IOException e) {
+                            connection.close();
+                        } catch (RuntimeException e) {
+                            // A bug or a request nothing anticipated: lose this connection, not the loop and all the others
+                            e.printStackTrace();
+                            connection.close();
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        // A decoded request waiting for a worker, whether its response may be compressed,
+        // and what ServerMetrics records for it
+        private record Work(Supplier<Response<?>> action, boolean deflate, String name, long start, int requestBytes) {
+        }
+
+        private class Connection {
+            private final SocketChannel channel;
+            private final SelectionKey key;
+            private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            private final Queue<ByteBuffer> writeQueue = new ArrayDeque<>();
+            // Requests without a correlation id; they run one at a time to keep responses in order
+            private final Queue<Work> ordered = new ArrayDeque<>();
+            // Taken by a worker for the whole of one streamed response so chunks never interleave
+            private final Semaphore writeLock = new Semaphore(1);
+            private final Semaphore writeBudget = new Semaphore(MAX_QUEUED_WRITE_BYTES);
+            // Chunks of a framed request that arrived with the more-chunks flag
+            private ByteArrayOutputStream partial;
+            private volatile boolean closed;
+            private boolean framed;
+            // String tables for a binary connection, null for JSON; see BinaryJson
+            private BinaryJson.Session binary;
+            // Open change subscriptions; they end when the connection closes or drains
+            private final List<ChangeFeed.Subscription> subscriptions = new ArrayList<>();
+            private boolean modeKnown;
+            private boolean busy;
+            private int inFlight;
+            private boolean closeAfterWrite;
+            // Bytes of a legacy request already searched for the empty line
+            private int legacyScanned;
+
+            Connection(SocketChannel channel, SelectionKey key) {
+                this.channel = channel;
+                this.key = key;
+            }
+
+            void onReadable() throws IOException {
+                int read = channel.read(readBuffer);
+                if (read < 0) {
+                    close();
+                    return;
+                }
+                readBuffer.flip();
+                if (!modeKnown && readBuffer.hasRemaining()) {
+                    modeKnown = true;
+                    int preamble = readBuffer.get(readBuffer.position()) & 0xFF;
+                    framed = preamble == Frames.FRAMED_PREAMBLE || preamble == Frames.BINARY_PREAMBLE;
+                    if (framed) {
+                        readBuffer.get();
+                    }
+                    if (preamble == Frames.BINARY_PREAMBLE) {
+                        binary = new BinaryJson.Session();
+                    }
+                }
+                if (framed) {
+                    decodeFrames();
+                } else {
+                    decodeLegacy();
+                }
+                readBuffer.compact();
+                updateInterest();
+            }
+
+            private void decodeFrames() throws IOException {
+                while (!closeAfterWrite && readBuffer.remaining() >= 4) {
+                    int header = readBuffer.getInt(readBuffer.position());
+                    int length = header & ~Frames.MORE_CHUNKS;
+                    Frames.checkLength(length);
+                    if (readBuffer.remaining() < 4 + length) {
+                        ensureCapacity(4 + length);
+                        return;
+                    }
+                    readBuffer.position(readBuffer.position() + 4);
+                    byte[] payload = new byte[length];
+                    readBuffer.get(payload);
+
+                    boolean more = (header & Frames.MORE_CHUNKS) != 0;
+                    if (partial == null && !more) {
+                        enqueue(payload);
+                        continue;
+                    }
+                    if (partial == null) {
+                        partial = new ByteArrayOutputStream();
+                    }
+                    if ((long) partial.size() + length > Frames.MAX_FRAME_SIZE) {
+                        throw new IOException("Request too large");
+                    }
+                    partial.write(payload);
+                    if (!more) {
+                        byte[] message = partial.toByteArray();
+                        partial = null;
+                        enqueue(message);
+                    }
+                }
+            }
+
+            // A legacy request is everything up to the first empty line; the connection closes after the answer
+            private void decodeLegacy() throws IOException {
+                int end = findEmptyLine();
+                if (end < 0) {
+                    if (readBuffer.remaining() == readBuffer.capacity()) {
+                        ensureCapacity(readBuffer.capacity() * 2);
+                    }
+                    return;
+                }
+                String text = StandardCharsets.UTF_8.decode(readBuffer.slice(readBuffer.position(), end)).toString();
+                readBuffer.position(readBuffer.limit());
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                closeAfterWrite = true;
+                enqueue(text.replace("\r", "").replace("\n", "").getBytes(StandardCharsets.UTF_8));
+            }
+
+            // Length of the request before its "\n\n" or "\r\n\r\n", or -1 if it isn't all here yet.
+            // Nothing is consumed until it is, so the search resumes where the last read's stopped
+            private int findEmptyLine() {
+                int start = readBuffer.position();
+                int length = readBuffer.remaining();
+                for (int i = legacyScanned; i < length; i++) {
+                    if (readBuffer.get(start + i) != '\n') {
+                        continue;
+                    }
+                    if (i >= 1 && readBuffer.get(start + i - 1) == '\n') {
+                        return i - 1;
+                    }
+                    if (i >= 3 && readBuffer.get(start + i - 1) == '\r' && readBuffer.get(start + i - 2) == '\n'
+                            && readBuffer.get(start + i - 3) == '\r') {
+                        return i - 3;
+                    }
+                }
+                legacyScanned = length;
+                return -1;
+            }
+
+            private void ensureCapacity(int needed) throws IOException {
+                if (needed > Frames.MAX_FRAME_SIZE + 4) {
+                    throw new IOException("Request too large");
+                }
+                if (readBuffer.capacity() < needed) {
+                    ByteBuffer bigger = ByteBuffer.allocate(needed);
+                    bigger.put(readBuffer);
+                    bigger.flip();
+                    readBuffer = bigger;
+                }
+            }
+
+            // JSON decoding happens here on the event loop; only the action itself goes to a worker.
+            // Framed requests with a correlation id go straight to a worker and may finish out of order.
+            private void enqueue(byte[] payload) {
+                long start = System.nanoTime();
+                Request<Object> request;
+                try {
+                    request = binary == null ? dispatcher.decode(payload) : dispatcher.decode(binary.reader(payload));
+                } catch (JsonParseException e) {
+                    Response<?> error = dispatcher.malformed(e);
+                    ordered.add(new Work(() -> error, false, ServerMetrics.MALFORMED, start, payload.length));
+                    if (binary != null) {
+                        // The string table may now be out of step with the client's: answer, then hang up
+                        closeAfterWrite = true;
+                    }
+                    runNextOrdered();
+                    return;
+                }
+                if (framed && dispatcher.isSubscribe(request)) {
+                    subscribe(request, start, payload.length);
+                    return;
+                }
+                // Compressed bytes can't be carried on a line-oriented legacy connection
+                Work work = new Work(() -> dispatcher.dispatch(request), framed && dispatcher.acceptsDeflate(request),
+                        dispatcher.metricsName(request), start, payload.length);
+                if (framed && request != null && request.getId() != null) {
+                    submit(work, false);
+                } else {
+                    ordered.add(work);
+                    runNextOrdered();
+                }
+            }
+
+            // Answers a subscribe request and pushes its events from a virtual thread of its own.
+            // It holds no worker and does not count as in flight, so draining closes the
+            // subscription instead of waiting for it
+            private void subscribe(Request<Object> request, long start, int requestBytes) {
+                RequestDispatcher.Subscribed subscribed = dispatcher.subscribe(request);
+                ChangeFeed.Subscription subscription = subscribed.subscription();
+                if (subscription != null) {
+                    subscriptions.add(subscription);
+                }
+                Thread.ofVirtual().name("nio-subscription").start(() -> {
+                    try {
+                        long written = stream(subscribed.response(), false);
+                        dispatcher.metrics().record(dispatcher.metricsName(request), start, requestBytes, written,
+                                subscribed.response().isSuccess());
+                        if (subscription != null) {
+                            subscription.pump(request.getId(), event -> stream(event, false));
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        execute(this::close);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        if (subscription != null) {
+                            subscription.close();
+                            execute(() -> subscriptions.remove(subscription));
+                        }
+                    }
+                });
+            }
+
+            private void runNextOrdered() {
+                if (busy || ordered.isEmpty()) {
+                    return;
+                }
+                busy = true;
+                submit(ordered.poll(), true);
+            }
+
+            private void submit(Work work, boolean inOrder) {
+                inFlight++;
+                workers.execute(() -> {
+                    if (closed && dispatcher.isReadOnly(work.name())) {
+                        // Dropped while this waited, e.g. for stalling: nobody is left to read the answer.
+                        // Mutations still run, as the client may count on them having been applied
+                        execute(() -> onResponseDone(inOrder));
+                        return;
+                    }
+                    DispatchEvent event = new DispatchEvent();
+                    event.begin();
+                    Response<?> response;
+                    try {
+                        response = work.action().get();
+                    } catch (RuntimeException e) {
+                        response = new Response<>(false, "Error: " + e.getMessage(), null);
+                    }
+                    try {
+                        long written = stream(response, work.deflate());
+                        dispatcher.metrics().record(work.name(), work.start(), work.requestBytes(), written,
+                                response.isSuccess());
+                        event.finish(work.name(), work.requestBytes(), written, response);
+                    } catch (IOException | RuntimeException e) {
+                        // Client stalled or went away, or part of the response is already out: drop the connection
+                        execute(this::close);
+                    }
+                    execute(() -> onResponseDone(inOrder));
+                });
+            }
+
+            // Runs on the worker: serializes the response in chunks that are queued as they fill.
+            // Returns the number of bytes queued
+            private long stream(Response<?> response, boolean deflate) throws IOException {
+                writeLock.acquireUninterruptibly();
+                try {
+                    CountingOutputStream sink = new CountingOutputStream(new OutputStream() {
+                        @Override
+                        public void write(int b) throws IOException {
+                            write(new byte[]{(byte) b}, 0, 1);
+                        }
+
+                        @Override
+                        public void write(byte[] b, int off, int len) throws IOException {
+                            queueChunk(Arrays.copyOfRange(b, off, off + len));
+                        }
+                    });
+                    if (framed) {
+                        OutputStream frame = new Frames.FrameOutputStream(sink);
+                        if (deflate) {
+                            frame = Compression.deflateAboveThreshold(frame);
+                        }
+                        if (binary == null) {
+                            dispatcher.writeJson(response, frame);
+                        } else {
+                            // Safe off the loop thread: the write lock serializes use of the outgoing table
+                            dispatcher.writeJson(response, binary.writer(frame));
+                        }
+                        frame.close();
+                    } else {
+                        BufferedOutputStream line = new BufferedOutputStream(sink, Frames.CHUNK_SIZE);
+                        dispatcher.writeJson(response, line);
+                        line.write('\n');
+                        line.flush();
+                    }
+                    return sink.count();
+                } finally {
+                    writeLock.release();
+                }
+            }
+
+            // Waits while the connection already has a full budget of unwritten bytes
+            private void queueChunk(byte[] chunk) throws IOException {
+                try {
+                    if (!writeBudget.tryAcquire(chunk.length, WRITE_STALL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                        throw new IOException("Client stopped reading");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while writing", e);
+                }
+                if (closed) {
+                    throw new IOException("Connection closed");
+                }
+                execute(() -> {
+                    if (!closed) {
+                        writeQueue.add(ByteBuffer.wrap(chunk));
+                        updateInterest();
+                    }
+                });
+            }
+
+            // Posted after the last chunk of a response, so it runs once all of them are queued
+            private void onResponseDone(boolean inOrder) {
+                inFlight--;
+                if (inOrder) {
+                    busy = false;
+                }
+                if (closed) {
+                    return;
+                }
+                runNextOrdered();
+                if (closeAfterWrite && inFlight == 0 && ordered.isEmpty() && writeQueue.isEmpty()) {
+                    close();
+                    return;
+                }
+                updateInterest();
+            }
+
+            void onWritable() throws IOException {
+                while (!writeQueue.isEmpty()) {
+                    ByteBuffer head = writeQueue.peek();
+                    channel.write(head);
+                    if (head.hasRemaining()) {
+                        return; // socket buffer full, wait for the next OP_WRITE
+                    }
+                    writeQueue.poll();
+                    writeBudget.release(head.capacity());
+                }
+                if (closeAfterWrite && inFlight == 0 && ordered.isEmpty()) {
+                    close();
+                    return;
+                }
+                updateInterest();
+            }
+
+            private void updateInterest() {
+                if (!key.isValid()) {
+                    return;
+                }
+                int ops = 0;
+                // A client that isn't reading its responses gets no more requests run, each of which would
+                // hold a worker waiting for room to write
+                if (!closeAfterWrite && inFlight + ordered.size() < MAX_PENDING_PER_CONNECTION
+                        && writeBudget.availablePermits() >= Frames.CHUNK_SIZE) {
+                    ops |= SelectionKey.OP_READ;
+                }
+                if (!writeQueue.isEmpty()) {
+                    ops |= SelectionKey.OP_WRITE;
+                }
+                key.interestOps(ops);
+            }
+
+            void drain() {
+                closeAfterWrite = true;
+                closeSubscriptions();
+                if (inFlight == 0 && ordered.isEmpty() && writeQueue.isEmpty()) {
+                    close();
+                } else {
+                    updateInterest();
+                }
+            }
+
+            private void closeSubscriptions() {
+                for (ChangeFeed.Subscription subscription : List.copyOf(subscriptions)) {
+                    subscription.close();
+                }
+            }
+
+            void close() {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                closeSubscriptions();
+                openConnections.release();
+                // Wake any worker waiting for budget; it sees the flag and gives up
+                writeBudget.release(MAX_QUEUED_WRITE_BYTES);
+                writeQueue.clear();
+                key.cancel();
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Nothing left to release
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,5 @@
+package com.om.server;
+
+// A response body that is already serialized, e.g. from the ResponseCache; written as-is
+record RawJson(String json) {
+}
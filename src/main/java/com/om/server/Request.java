@@ -3,8 +3,15 @@ package com.om.server;
 import java.util.Map;
 
 public class Request<T> {
+    // Optional time budget in milliseconds, counted from when the server decoded the request
+    public static final String DEADLINE_HEADER = "deadline-ms";
+
+    // Optional correlation id; requests that carry one may be answered out of order
+    private Long id;
     private Map<String, String> headers;
     private T body;
+    // System.nanoTime() at construction, i.e. when the server decoded it. Not sent on the wire
+    private final transient long receivedAt = System.nanoTime();
 
     public Request() {}
 
@@ -13,6 +20,24 @@ public class Request<T> {
         this.body = body;
     }
 
+    public Request(Long id, Map<String, String> headers, T body) {
+        this.id = id;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public long getReceivedAt() {
+        return receivedAt;
+    }
+
     public Map<String, String> getHeaders() {
         return headers;
     }
@@ -28,4 +53,4 @@ public class Request<T> {
     public void setBody(T body) {
         this.body = body;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,1015 @@
+package com.om.server;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.om.controller.StoreController;
+import com.om.dm.Product;
+import com.om.dm.Store;
+import com.om.util.Deadline;
+import com.om.util.DeadlineExceededException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes requests and runs actions against the controller.
+ * Shared by every transport (blocking sockets, the NIO server and the HTTP gateway), so an action
+ * behaves the same no matter how the request arrived. Thread-safe.
+ *
+ * Each action is registered once with a body reader and a handler. While a request is
+ * decoded, the body is read straight from the JSON stream into the type its action
+ * expects (a Store, a store id plus Product, ...), using the hand-written adapters in
+ * {@link JsonAdapters}. Nothing is re-serialized on the way to the controller.
+ *
+ * Reads registered as cached are answered from the {@link ResponseCache} while the
+ * controller's data version is unchanged.
+ *
+ * The subscribe action streams change events; only framed connections can carry them,
+ * so those transports check {@link #isSubscribe} and open the subscription themselves.
+ */
+public class RequestDispatcher {
+
+    // Reads an action's body from the request stream
+    @FunctionalInterface
+    private interface BodyReader<B> {
+        B read(JsonReader in) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface ActionHandler<B> {
+        Response<?> handle(B body) throws Exception;
+    }
+
+    // The part of a cached read's body that affects the result, as a string; equal bodies give equal keys
+    @FunctionalInterface
+    private interface CacheKey<B> {
+        String of(B body);
+    }
+
+    private record Action<B>(BodyReader<B> bodyReader, ActionHandler<B> handler, boolean readOnly,
+                             CacheKey<B> cacheKey) {
+        @SuppressWarnings("unchecked")
+        Response<?> run(Object body) throws Exception {
+            return handler.handle((B) body);
+        }
+
+        @SuppressWarnings("unchecked")
+        String keyOf(Object body) {
+            return cacheKey.of((B) body);
+        }
+    }
+
+    // Typed bodies of the actions that carry more than flat fields
+    private record StoreProduct(int storeId, Product product) {
+    }
+
+    private record Batch(List<Request<Object>> requests, boolean parallelReads) {
+    }
+
+    // Typed bodies of the flat actions; a field the request left out is null.
+    // A listing is paged when the client passes a page size or a cursor
+    private record Listing(Integer storeId, boolean paged, String cursor, Integer limit) {
+    }
+
+    private record ProductQuery(Integer storeId, String location, String productName) {
+    }
+
+    private record Node(String nodeName, Double x, Double y) {
+    }
+
+    private record Edge(String from, String to, Double weight) {
+    }
+
+    // A request that failed to decode after its id was read, so the reply can still be matched to it
+    private static final class MalformedRequestException extends JsonParseException {
+        private static final long serialVersionUID = 1L;
+        private final long id;
+
+        MalformedRequestException(long id, Exception cause) {
+            super(cause.getMessage(), cause);
+            this.id = id;
+        }
+    }
+
+    // The answer to a subscribe request: the response to send first and, if it opened, the subscription to pump
+    record Subscribed(Response<?> response, ChangeFeed.Subscription subscription) {
+    }
+
+    private static final BodyReader<Void> NO_BODY = in -> {
+        in.skipValue();
+        return null;
+    };
+    private static final BodyReader<Store> STORE = JsonAdapters.STORE::read;
+    private static final BodyReader<StoreProduct> STORE_PRODUCT = RequestDispatcher::readStoreProduct;
+    private static final BodyReader<Listing> LISTING = RequestDispatcher::readListing;
+    private static final BodyReader<ProductQuery> PRODUCT_QUERY = RequestDispatcher::readProductQuery;
+    private static final BodyReader<Node> NODE = RequestDispatcher::readNode;
+    private static final BodyReader<Edge> EDGE = RequestDispatcher::readEdge;
+    private static final BodyReader<ChangeFeed.Filter> FILTER = RequestDispatcher::readFilter;
+
+    // Actions under this prefix skip admission control, so operators can look inside an overloaded server
+    private static final String ADMIN_PREFIX = "admin/";
+    private static final String SUBSCRIBE = "subscribe";
+
+    private final StoreController storeController;
+    private final AdmissionController admission;
+    private final ResponseCache cache;
+    private final ChangeFeed changes = new ChangeFeed();
+    private final ServerMetrics metrics = new ServerMetrics();
+    // Set by the server once it is listening and cleared when it starts draining
+    private volatile boolean ready;
+    private final Map<String, Action<?>> actions = new HashMap<>();
+
+    public RequestDispatcher(StoreController controller) {
+        this(controller, AdmissionController.unlimited());
+    }
+
+    public RequestDispatcher(StoreController controller, AdmissionController admission) {
+        this(controller, admission, ResponseCache.disabled());
+    }
+
+    public RequestDispatcher(StoreController controller, AdmissionController admission, ResponseCache cache) {
+        this.storeController = controller;
+        this.admission = admission;
+        this.cache = cache;
+        controller.addChangeListener(changes);
+        registerStoreActions();
+        registerGraphActions();
+        registerAlgorithmActions();
+        registerAdminActions();
+        registerSubscriptionActions();
+        // Many sub-requests in one round trip
+        register("batch", false, this::readBatch, this::executeBatch);
+    }
+
+    private <B> void register(String action, boolean readOnly, BodyReader<B> bodyReader, ActionHandler<B> handler) {
+        actions.put(action, new Action<>(bodyReader, handler, readOnly, null));
+    }
+
+    // A read whose successful responses may be served from the cache
+    private <B> void registerCached(String action, BodyReader<B> bodyReader, CacheKey<B> cacheKey,
+                                   ActionHandler<B> handler) {
+        actions.put(action, new Action<>(bodyReader, handler, true, cacheKey));
+    }
+
+    // Store operations
+    private void registerStoreActions() {
+        register("store/add", false, STORE, store -> {
+            storeController.save(store);
+            return new Response<>(true, "Store added", null);
+        });
+        register("store/delete", false, STORE, store -> {
+            storeController.delete(store);
+            return new Response<>(true, "Store deleted", null);
+        });
+        registerCached("store/get", STORE, store -> String.valueOf(store.getId()), store ->
+                new Response<>(true, "Store found", storeController.get(store)));
+        registerCached("store/getAll", LISTING, Listing::toString, body -> body.paged()
+                ? new Response<>(true, "Stores retrieved", storeController.getAllPage(body.cursor(), body.limit()))
+                : new Response<>(true, "All stores retrieved", storeController.getAll()));
+        register("store/update", false, STORE, store -> {
+            storeController.update(store);
+            return new Response<>(true, "Store updated", null);
+        });
+
+        // Product operations
+        register("store/addProduct", false, STORE_PRODUCT, body -> {
+            storeController.addProduct(body.storeId(), body.product());
+            return new Response<>(true, "Product added to store", null);
+        });
+        register("store/removeProduct", false, PRODUCT_QUERY, body -> {
+            storeController.removeProduct(require(body.storeId(), "storeId"), body.productName());
+            return new Response<>(true, "Product removed from store", null);
+        });
+        registerCached("store/getProducts", LISTING, Listing::toString, body -> body.paged()
+                ? new Response<>(true, "Products retrieved", storeController.getProductsPage(
+                        require(body.storeId(), "storeId"), body.cursor(), body.limit()))
+                : new Response<>(true, "Products retrieved", storeController.getProducts(require(body.storeId(), "storeId"))));
+        register("store/updateProduct", false, STORE_PRODUCT, body -> {
+            storeController.updateProduct(body.storeId(), body.product());
+            return new Response<>(true, "Product updated", null);
+        });
+        register("store/findNearest", true, PRODUCT_QUERY, body -> {
+            Store nearestStore = storeController.findNearestStoreWithProduct(body.location(), body.productName());
+            return new Response<>(true, "Nearest store found", nearestStore);
+        });
+        register("store/findCheapest", true, PRODUCT_QUERY, body -> {
+            Store cheapestStore = storeController.findCheapestStoreWithProduct(body.productName());
+            return new Response<>(true, "Cheapest store found", cheapestStore);
+        });
+    }
+
+    // Graph management operations
+    private void registerGraphActions() {
+        register("graph/addNode", false, NODE, body -> {
+            storeController.addNode(body.nodeName(), require(body.x(), "x"), require(body.y(), "y"));
+            return new Response<>(true, "Node added successfully", null);
+        });
+        register("graph/addEdge", false, EDGE, body -> {
+            storeController.addEdge(body.from(), body.to(), require(body.weight(), "weight"));
+            return new Response<>(true, "Edge added successfully", null);
+        });
+        register("graph/removeNode", false, NODE, body -> {
+            storeController.removeNode(body.nodeName());
+            return new Response<>(true, "Node removed successfully", null);
+        });
+        registerCached("graph/getNodes", NO_BODY, none -> "", none ->
+                new Response<>(true, "Nodes retrieved", storeController.getAllNodes()));
+        registerCached("graph/getNodesWithCoordinates", NO_BODY, none -> "", none ->
+                new Response<>(true, "Nodes with coordinates retrieved", storeController.getAllNodesWithCoordinates()));
+        register("graph/removeEdge", false, EDGE, body -> {
+            storeController.removeEdge(body.from(), body.to());
+            return new Response<>(true, "Edge removed successfully", null);
+        });
+        registerCached("graph/getEdges", NO_BODY, none -> "", none ->
+                new Response<>(true, "Edges retrieved", storeController.getAllEdges()));
+        register("graph/clearAllData", false, NO_BODY, none -> {
+            storeController.clearAll();
+            return new Response<>(true, "All data cleared successfully", null);
+        });
+    }
+
+    // Algorithm switching operations
+    private void registerAlgorithmActions() {
+        register("algorithm/useAStar", false, NO_BODY, none -> {
+            storeController.useAStarAlgorithm();
+            return new Response<>(true, "Switched to A* algorithm", null);
+        });
+        register("algorithm/useDijkstra", false, NO_BODY, none -> {
+            storeController.useDijkstraAlgorithm();
+            return new Response<>(true, "Switched to Dijkstra algorithm", null);
+        });
+        register("algorithm/getCurrent", true, NO_BODY, none ->
+                new Response<>(true, "Current algorithm retrieved", storeController.getCurrentAlgorithm()));
+    }
+
+    // Server internals
+    private void registerAdminActions() {
+        register("admin/admission", true, NO_BODY, none ->
+                new Response<>(true, "Admission statistics", admission.stats()));
+        register("admin/cache", true, NO_BODY, none ->
+                new Response<>(true, "Cache statistics", cache.stats()));
+        register("admin/subscriptions", true, NO_BODY, none ->
+                new Response<>(true, "Subscription statistics", changes.stats()));
+        // {"format": "text"} returns the table from ServerMetrics.toText() instead of JSON
+        register("admin/metrics", true, in -> readStringField(in, "format"), format -> "text".equals(format)
+                ? new Response<>(true, "Metrics", metrics.toText())
+                : new Response<>(true, "Metrics", metrics.snapshot()));
+        // For load balancers and rolling restarts: poll until ready is true before sending traffic
+        register("admin/ready", true, NO_BODY, none ->
+                new Response<>(true, ready ? "Ready" : "Not ready", Map.of("ready", ready)));
+    }
+
+    // Change feed; subscribe itself is opened by the transport, see subscribe(Request)
+    private void registerSubscriptionActions() {
+        register(SUBSCRIBE, true, FILTER, body ->
+                new Response<>(false, "Subscribe needs a framed connection and a request id", null));
+        register("unsubscribe", true, in -> readLongField(in, "subscription"),
+                subscription -> changes.close(require(subscription, "subscription"))
+                ? new Response<>(true, "Unsubscribed", null)
+                : new Response<>(false, "No such subscription", null));
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public void setReady(boolean ready) {
+        this.ready = ready;
+    }
+
+    // Persist pending writes; called by each transport once it has stopped
+    public void flush() {
+        storeController.flush();
+    }
+
+    // Where the transports record what each request cost
+    public ServerMetrics metrics() {
+        return metrics;
+    }
+
+    // The name a request is recorded under; only registered actions get their own entry
+    public String metricsName(Request<Object> request) {
+        String action = actionOf(request);
+        if (action == null) {
+            return ServerMetrics.NO_ACTION;
+        }
+        return actions.containsKey(action) ? action : ServerMetrics.UNKNOWN_ACTION;
+    }
+
+    // A subscribe request a framed transport should open with subscribe(Request) instead of dispatching
+    boolean isSubscribe(Request<Object> request) {
+        return request != null && request.getId() != null && SUBSCRIBE.equals(actionOf(request));
+    }
+
+    /**
+     * Opens the subscription for {"storeIds": [...], "productNames": [...]} (both optional).
+     * The first response carries the subscription id for unsubscribe; events follow with
+     * the subscribe request's id.
+     */
+    Subscribed subscribe(Request<Object> request) {
+        Response<?> response;
+        ChangeFeed.Subscription subscription = null;
+        try {
+            subscription = changes.open((ChangeFeed.Filter) request.getBody());
+            response = new Response<>(true, "Subscribed", Map.of("subscription", subscription.id()));
+        } catch (RuntimeException e) {
+            response = new Response<>(false, "Error: " + e.getMessage(), null);
+        }
+        response.setId(request.getId());
+        return new Subscribed(response, subscription);
+    }
+
+    // Actions that never modify data; safe to run concurrently with each other
+    public boolean isReadOnly(String action) {
+        Action<?> registered = action == null ? null : actions.get(action);
+        return registered != null && registered.readOnly();
+    }
+
+    // Decode a JSON request; throws JsonParseException if it is malformed
+    public Request<Object> decode(String json) {
+        return decode(new StringReader(json));
+    }
+
+    public Request<Object> decode(byte[] payload) {
+        return decode(new InputStreamReader(new ByteArrayInputStream(payload), StandardCharsets.UTF_8));
+    }
+
+    // setLenient is deprecated from Gson 2.11, but its replacement is missing from the documented gson-2.10.1
+    @SuppressWarnings("deprecation")
+    private Request<Object> decode(Reader source) {
+        JsonReader in = new JsonReader(source);
+        in.setLenient(true);
+        return decode(in);
+    }
+
+    // Decode a request whose headers, action included, arrived outside the JSON, e.g. over HTTP;
+    // the payload is the bare body and may be empty
+    @SuppressWarnings("deprecation")
+    public Request<Object> decode(Map<String, String> headers, byte[] body) {
+        JsonReader in = new JsonReader(body.length == 0 ? new StringReader("null")
+                : new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8));
+        in.setLenient(true);
+        try (in) {
+            return new Request<>(null, headers, readBody(headers.get("action"), in));
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            throw new JsonParseException(e.getMessage(), e);
+        }
+    }
+
+    // Decode a request from any token stream, e.g. a BinaryJsonReader
+    public Request<Object> decode(JsonReader in) {
+        try (in) {
+            return readRequest(in);
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            throw new JsonParseException(e.getMessage(), e);
+        }
+    }
+
+    public String toJson(Response<?> response) {
+        return JsonAdapters.GSON.toJson(response);
+    }
+
+    /**
+     * Serializes the response straight onto the stream as it is produced, so large
+     * bodies (all stores, all edges) never exist as one String or byte array.
+     * The stream is flushed but not closed.
+     */
+    public void writeJson(Response<?> response, OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        writeJson(response, new JsonWriter(writer));
+    }
+
+    // Same, onto any token stream, e.g. a BinaryJsonWriter
+    public void writeJson(Response<?> response, JsonWriter out) throws IOException {
+        try {
+            JsonAdapters.GSON.toJson(response, Response.class, out);
+        } catch (JsonIOException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw e;
+        }
+        out.flush();
+    }
+
+    // Whether the client asked for compressed responses (framed connections only)
+    public boolean acceptsDeflate(Request<?> request) {
+        Map<String, String> headers = request == null ? null : request.getHeaders();
+        return headers != null && Compression.acceptsDeflate(headers.get(Compression.HEADER));
+    }
+
+    // Decode and dispatch in one step
+    public Response<?> handle(String json) {
+        Request<Object> request;
+        try {
+            request = decode(json);
+        } catch (JsonParseException e) {
+            return malformed(e);
+        }
+        return dispatch(request);
+    }
+
+    private static Response<?> overloaded() {
+        Response<?> response = new Response<>(false, "Server overloaded, please retry", null);
+        response.setStatus(Response.STATUS_OVERLOADED);
+        return response;
+    }
+
+    public Response<?> malformed(JsonParseException e) {
+        Response<?> response = new Response<>(false, "Malformed request: " + e.getMessage(), null);
+        if (e instanceof MalformedRequestException known) {
+            response.setId(known.id);
+        }
+        return response;
+    }
+
+    private static Response<?> timedOut() {
+        Response<?> response = new Response<>(false, "Request deadline exceeded", null);
+        response.setStatus(Response.STATUS_TIMEOUT);
+        return response;
+    }
+
+    // Run the request's action if admission control lets it in; the response carries the
+    // request's correlation id. A batch is admitted once, as a whole, in the write lane; its
+    // parallel reads each take a read-lane slot as well
+    public Response<?> dispatch(Request<Object> request) {
+        String action = actionOf(request);
+        Response<?> response;
+        if (action == null || action.startsWith(ADMIN_PREFIX)) {
+            response = run(request);
+        } else {
+            response = admitAndRun(request, isReadOnly(action));
+        }
+        if (request != null) {
+            response.setId(request.getId());
+        }
+        return response;
+    }
+
+    /**
+     * A request with a deadline-ms header that has already spent its budget waiting in a
+     * queue is answered with a timeout without running. Reads keep the deadline bound while
+     * they run and are abandoned at the next check once it passes. Mutations are only checked
+     * before they start, so a timeout never leaves one half applied.
+     */
+    private Response<?> admitAndRun(Request<Object> request, boolean readOnly) {
+        Deadline deadline;
+        try {
+            deadline = deadlineOf(request);
+        } catch (IllegalArgumentException e) {
+            return new Response<>(false, "Error: " + e.getMessage(), null);
+        }
+        if (deadline != null && deadline.isExpired()) {
+            return timedOut();
+        }
+        try (AdmissionController.Permit permit = admission.admit(readOnly, deadline)) {
+            if (permit == null) {
+                return deadline != null && deadline.isExpired() ? timedOut() : overloaded();
+            }
+            if (deadline != null && deadline.isExpired()) {
+                return timedOut();
+            }
+            // A batch applies its deadline to each entry itself
+            Deadline.Scope scope = Deadline.bind(readOnly || "batch".equals(actionOf(request)) ? deadline : null);
+            try {
+                return run(request);
+            } finally {
+                scope.close();
+            }
+        }
+    }
+
+    private Response<?> run(Request<Object> request) {
+        String action = actionOf(request);
+        if (action == null) {
+            return new Response<>(false, "Missing action header", null);
+        }
+
+        try {
+            return execute(action, request, true);
+        } catch (DeadlineExceededException e) {
+            return timedOut();
+        } catch (Exception e) {
+            return new Response<>(false, "Error: " + e.getMessage(), null);
+        }
+    }
+
+    // Batch entries are not cached: their bodies are written with the batch's projection, not their own
+    private Response<?> execute(String action, Request<Object> request, boolean useCache) throws Exception {
+        Action<?> registered = actions.get(action);
+        if (registered == null) {
+            return new Response<>(false, "Unknown action: " + action, null);
+        }
+        // Validate the projection before running, so a bad header never half-applies a mutation
+        Set<String> fields = fieldsOf(request);
+        if (useCache && registered.cacheKey() != null && cache.isEnabled()) {
+            return executeCached(action, registered, request.getBody(), fields);
+        }
+        Response<?> response = registered.run(request.getBody());
+        response.setFields(fields);
+        return response;
+    }
+
+    /**
+     * Serves a cached read, or runs it and caches its body serialized with the projection.
+     * The body is captured as it streams to the client rather than rendered up front, so a
+     * body too large for the cache still streams. The version is read before running, so
+     * if a mutation lands meanwhile the entry is already stale when stored and is never served.
+     */
+    private Response<?> executeCached(String action, Action<?> registered, Object body, Set<String> fields)
+            throws Exception {
+        String key = action + '|' + (fields == null ? "" : String.join(",", new TreeSet<>(fields)))
+                + '|' + registered.keyOf(body);
+        long version = storeController.dataVersion();
+        ResponseCache.Entry entry = cache.get(key, version);
+        if (entry != null) {
+            return entry.toResponse();
+        }
+
+        Response<?> response = registered.run(body);
+        if (!response.isSuccess()) {
+            response.setFields(fields);
+            return response;
+        }
+        String message = response.getMessage();
+        if (response.getBody() == null) {
+            cache.put(key, new ResponseCache.Entry(version, message, null));
+            return response;
+        }
+        Response<?> streamed = new Response<>(true, message, new CachingBody(response.getBody(), cache.room(version),
+                json -> cache.put(key, new ResponseCache.Entry(version, message, json))));
+        streamed.setFields(fields);
+        return streamed;
+    }
+
+    /**
+     * Runs {"requests": [{"action": ..., "body": ...}, ...], "parallelReads": bool}.
+     * Entries are answered in order in a list of responses. With parallelReads, each run of
+     * consecutive read-only entries executes concurrently, on no more threads than the read
+     * lane admits, and each entry takes a read-lane slot as a request of its own would;
+     * mutating entries always run one at a time, in order, and act as barriers so reads
+     * still observe earlier writes. The batch's deadline, bound by admitAndRun, applies to
+     * each entry as it would to a request.
+     */
+    private Response<?> executeBatch(Batch batch) throws InterruptedException {
+        if (batch.requests() == null) {
+            return new Response<>(false, "Batch requires a 'requests' array", null);
+        }
+        List<Request<Object>> requests = batch.requests();
+        Deadline deadline = Deadline.current();
+
+        List<Response<?>> responses = new ArrayList<>(requests.size());
+        int i = 0;
+        while (i < requests.size()) {
+            if (!batch.parallelReads() || !isReadOnly(actionOf(requests.get(i)))) {
+                responses.add(executeBatchEntry(requests.get(i), deadline));
+                i++;
+                continue;
+            }
+
+            // Collect the run of consecutive read-only entries; a few workers take them in turn
+            int end = i;
+            while (end < requests.size() && isReadOnly(actionOf(requests.get(end)))) {
+                end++;
+            }
+            List<Request<Object>> reads = requests.subList(i, end);
+            Response<?>[] answers = new Response<?>[reads.size()];
+            AtomicInteger next = new AtomicInteger();
+            List<Future<?>> workers = new ArrayList<>();
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int w = Math.min(reads.size(), admission.maxConcurrentReads()); w > 0; w--) {
+                    workers.add(executor.submit(() -> {
+                        for (int n = next.getAndIncrement(); n < answers.length; n = next.getAndIncrement()) {
+                            answers[n] = executeParallelRead(reads.get(n), deadline);
+                        }
+                    }));
+                }
+            }
+            // Only an Error gets past executeBatchEntry; it loses the entry its worker was running
+            String failure = null;
+            for (Future<?> worker : workers) {
+                try {
+                    worker.get();
+                } catch (ExecutionException e) {
+                    failure = "Error: " + e.getCause().getMessage();
+                }
+            }
+            for (Response<?> answer : answers) {
+                responses.add(answer != null ? answer : new Response<>(false, failure, null));
+            }
+            i = end;
+        }
+        return new Response<>(true, "Batch executed", responses);
+    }
+
+    private Response<?> executeParallelRead(Request<Object> entry, Deadline deadline) {
+        try (AdmissionController.Permit permit = admission.admit(true, deadline)) {
+            if (permit == null) {
+                return deadline != null && deadline.isExpired() ? timedOut() : overloaded();
+            }
+            return executeBatchEntry(entry, deadline);
+        }
+    }
+
+    // As for a request: a read runs under the deadline, a mutation is only checked before it starts
+    private Response<?> executeBatchEntry(Request<Object> entry, Deadline deadline) {
+        String action = actionOf(entry);
+        if (action == null) {
+            return new Response<>(false, "Missing action in batch entry", null);
+        }
+        if (action.equals("batch")) {
+            return new Response<>(false, "Nested batches are not supported", null);
+        }
+        if (deadline != null && deadline.isExpired()) {
+            return timedOut();
+        }
+        Deadline.Scope scope = Deadline.bind(isReadOnly(action) ? deadline : null);
+        try {
+            return execute(action, entry, false);
+        } catch (DeadlineExceededException e) {
+            return timedOut();
+        } catch (Exception e) {
+            return new Response<>(false, "Error: " + e.getMessage(), null);
+        } finally {
+            scope.close();
+        }
+    }
+
+    private static String actionOf(Request<Object> request) {
+        Map<String, String> headers = request == null ? null : request.getHeaders();
+        return headers == null ? null : headers.get("action");
+    }
+
+    // The deadline-ms header gives the request's time budget, counted from when it was decoded
+    private static Deadline deadlineOf(Request<Object> request) {
+        String header = request.getHeaders() == null ? null : request.getHeaders().get(Request.DEADLINE_HEADER);
+        if (header == null || header.isBlank()) {
+            return null;
+        }
+        int budget;
+        try {
+            budget = Integer.parseInt(header.trim());
+        } catch (NumberFormatException e) {
+            budget = 0;
+        }
+        if (budget <= 0) {
+            throw new IllegalArgumentException(Request.DEADLINE_HEADER + " must be a positive number of milliseconds");
+        }
+        return Deadline.after(request.getReceivedAt(), budget);
+    }
+
+    // The "fields" header lists the Store fields to return, e.g. "id,name,locationId"
+    private static Set<String> fieldsOf(Request<Object> request) {
+        String header = request.getHeaders() == null ? null : request.getHeaders().get("fields");
+        if (header == null || header.isBlank()) {
+            return null;
+        }
+        Set<String> fields = new LinkedHashSet<>();
+        for (String field : header.split(",")) {
+            if (!field.isBlank()) {
+                fields.add(field.trim());
+            }
+        }
+        JsonAdapters.checkStoreFields(fields);
+        return fields;
+    }
+
+    // --- Decoding ---
+
+    /**
+     * Reads {"id": ..., "headers": {...}, "body": ...}; batch entries use the short form
+     * {"action": ..., "body": ...}. The body is decoded directly for its action when the
+     * action is already known, which is the case for every request our clients send;
+     * otherwise it is buffered as a tree and decoded once the action is known.
+     */
+    private Request<Object> readRequest(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Long id = null;
+        Map<String, String> headers = null;
+        Object body = null;
+        // A request without a body is read as if it sent null, so every action gets its empty body
+        JsonElement deferredBody = JsonNull.INSTANCE;
+
+        try {
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id" -> id = readId(in);
+                    case "headers" -> headers = readHeaders(in);
+                    case "action" -> {
+                        headers = headers == null ? new HashMap<>() : headers;
+                        headers.put("action", JsonAdapters.readString(in));
+                    }
+                    case "body" -> {
+                        if (headers != null && headers.containsKey("action")) {
+                            body = readBody(headers.get("action"), in);
+                            deferredBody = null;
+                        } else {
+                            deferredBody = JsonParser.parseReader(in);
+                        }
+                    }
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+
+            Request<Object> request = new Request<>(id, headers, body);
+            if (deferredBody != null) {
+                request.setBody(readBody(actionOf(request), deferredBody));
+            }
+            return request;
+        } catch (IOException | IllegalStateException | NumberFormatException | JsonParseException e) {
+            // Clients send the id first, so a body of the wrong shape is usually reported against it
+            if (id != null) {
+                throw new MalformedRequestException(id, e);
+            }
+            throw e;
+        }
+    }
+
+    private Object readBody(String action, JsonReader in) throws IOException {
+        Action<?> registered = action == null ? null : actions.get(action);
+        if (registered == null) {
+            in.skipValue();
+            return null;
+        }
+        return registered.bodyReader().read(in);
+    }
+
+    private Object readBody(String action, JsonElement tree) {
+        Action<?> registered = action == null ? null : actions.get(action);
+        if (registered == null) {
+            return null;
+        }
+        return new TypeAdapter<Object>() {
+            @Override
+            public void write(JsonWriter out, Object value) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Object read(JsonReader in) throws IOException {
+                return registered.bodyReader().read(in);
+            }
+        }.fromJsonTree(tree);
+    }
+
+    private static Long readId(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextLong();
+    }
+
+    private static Map<String, String> readHeaders(JsonReader in) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return headers;
+        }
+        in.beginObject();
+        while (in.hasNext()) {
+            headers.put(in.nextName(), JsonAdapters.readString(in));
+        }
+        in.endObject();
+        return headers;
+    }
+
+    private static StoreProduct readStoreProduct(JsonReader in) throws IOException {
+        int storeId = 0;
+        Product product = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "storeId" -> storeId = in.nextInt();
+                case "product" -> product = JsonAdapters.PRODUCT.read(in);
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return new StoreProduct(storeId, product);
+    }
+
+    private static Listing readListing(JsonReader in) throws IOException {
+        Integer storeId = null;
+        boolean paged = false;
+        String cursor = null;
+        Integer limit = null;
+        if (beginBody(in)) {
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "storeId" -> storeId = readInteger(in);
+                    case "cursor" -> {
+                        paged = true;
+                        cursor = JsonAdapters.readString(in);
+                    }
+                    case "limit" -> {
+                        paged = true;
+                        limit = readInteger(in);
+                    }
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+        }
+        return new Listing(storeId, paged, cursor, limit);
+    }
+
+    private static ProductQuery readProductQuery(JsonReader in) throws IOException {
+        Integer storeId = null;
+        String location = null;
+        String productName = null;
+        if (beginBody(in)) {
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "storeId" -> storeId = readInteger(in);
+                    case "location" -> location = JsonAdapters.readString(in);
+                    case "productName" -> productName = JsonAdapters.readString(in);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+        }
+        return new ProductQuery(storeId, location, productName);
+    }
+
+    private static Node readNode(JsonReader in) throws IOException {
+        String nodeName = null;
+        Double x = null;
+        Double y = null;
+        if (beginBody(in)) {
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "nodeName" -> nodeName = JsonAdapters.readString(in);
+                    case "x" -> x = readDouble(in);
+                    case "y" -> y = readDouble(in);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+        }
+        return new Node(nodeName, x, y);
+    }
+
+    private static Edge readEdge(JsonReader in) throws IOException {
+        String from = null;
+        String to = null;
+        Double weight = null;
+        if (beginBody(in)) {
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "from" -> from = JsonAdapters.readString(in);
+                    case "to" -> to = JsonAdapters.readString(in);
+                    case "weight" -> weight = readDouble(in);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+        }
+        return new Edge(from, to, weight);
+    }
+
+    private static ChangeFeed.Filter readFilter(JsonReader in) throws IOException {
+        Set<Integer> storeIds = new HashSet<>();
+        Set<String> productNames = new HashSet<>();
+        if (beginBody(in)) {
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "storeIds" -> {
+                        if (in.peek() == JsonToken.NULL) {
+                            in.nextNull();
+                        } else {
+                            in.beginArray();
+                            while (in.hasNext()) {
+                                storeIds.add(in.nextInt());
+                            }
+                            in.endArray();
+                        }
+                    }
+                    case "productNames" -> productNames.addAll(JsonAdapters.readStringList(in));
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+        }
+        return new ChangeFeed.Filter(storeIds, productNames);
+    }
+
+    // The one field of a body such as {"format": "text"}, or null if absent
+    private static String readStringField(JsonReader in, String name) throws IOException {
+        String value = null;
+        if (beginBody(in)) {
+            while (in.hasNext()) {
+                if (in.nextName().equals(name)) {
+                    value = JsonAdapters.readString(in);
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+        }
+        return value;
+    }
+
+    private static Long readLongField(JsonReader in, String name) throws IOException {
+        Long value = null;
+        if (beginBody(in)) {
+            while (in.hasNext()) {
+                if (in.nextName().equals(name) && in.peek() != JsonToken.NULL) {
+                    value = in.nextLong();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+        }
+        return value;
+    }
+
+    // Enters a body object; a null body reads as an object with no fields
+    private static boolean beginBody(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return false;
+        }
+        in.beginObject();
+        return true;
+    }
+
+    private static Integer readInteger(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextInt();
+    }
+
+    private static Double readDouble(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextDouble();
+    }
+
+    private Batch readBatch(JsonReader in) throws IOException {
+        List<Request<Object>> requests = null;
+        boolean parallelReads = false;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "requests" -> {
+                    requests = new ArrayList<>();
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        requests.add(readRequest(in));
+                    }
+                    in.endArray();
+                }
+                case "parallelReads" -> parallelReads = in.nextBoolean();
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return new Batch(requests, parallelReads);
+    }
+
+    private static <T> T require(T value, String name) {
+        if (value == null) {
+            throw new IllegalArgumentException("Missing field: " + name);
+        }
+        return value;
+    }
+}
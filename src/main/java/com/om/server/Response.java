@@ -1,9 +1,24 @@
 package com.om.server;
 
+import java.util.Set;
+
 public class Response<T> {
+    // Request was not run because the server is at capacity; safe to retry after a back-off
+    public static final String STATUS_OVERLOADED = "overloaded";
+    // Request ran out of its deadline-ms budget; a mutation that times out was not applied
+    public static final String STATUS_TIMEOUT = "timeout";
+    // Final push to a change subscriber that fell behind; it must reload and subscribe again
+    public static final String STATUS_LAGGED = "lagged";
+
+    // Copied from the request so pipelining clients can match responses to requests
+    private Long id;
     private boolean success;
     private String message;
+    // Machine-readable reason for a failure the request itself did not cause; null otherwise
+    private String status;
     private T body;
+    // Store fields to serialize, from the request's "fields" header; null means all. Not sent on the wire
+    private transient Set<String> fields;
 
     public Response() {}
 
@@ -13,6 +28,14 @@ public class Response<T> {
         this.body = body;
     }
 
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
     public boolean isSuccess() {
         return success;
     }
@@ -29,6 +52,14 @@ public class Response<T> {
         this.message = message;
     }
 
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
     public T getBody() {
         return body;
     }
@@ -36,4 +67,12 @@ public class Response<T> {
     public void setBody(T body) {
         this.body = body;
     }
-}
\ No newline at end of file
+
+    public Set<String> getFields() {
+        return fields;
+    }
+
+    public void setFields(Set<String> fields) {
+        this.fields = fields;
+    }
+}
@@ -0,0 +1,133 @@
+package com.om.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serialized bodies of read-only responses, so a repeated read of unchanged data skips
+ * both the DAO and JSON serialization.
+ *
+ * Entries are keyed by action, field projection and normalized request body, and tagged
+ * with the data version ({@link com.om.controller.StoreController#dataVersion()}) that was
+ * current when the read started. An entry is only served while that is still the current
+ * version, and any mutation bumps it, so a cached body is never older than the last write
+ * made through the controller. Stale entries are dropped as soon as a newer one is stored.
+ *
+ * Bodies are kept as JSON text and sized in UTF-8 bytes, as they go on the wire. A body
+ * is captured while it streams to the client (see {@link CachingBody}), and only as far
+ * as {@link #room} allows, so one too large to cache is never held in full. Once maxBytes
+ * is reached, new bodies are not cached until the next version clears the old ones.
+ * Thread-safe.
+ */
+public class ResponseCache {
+
+    // A cached success: the response message plus the body as JSON, or null for no body
+    record Entry(long version, String message, String body, long size) {
+        Entry(long version, String message, String body) {
+            this(version, message, body, utf8Length(message) + utf8Length(body));
+        }
+
+        Response<?> toResponse() {
+            return new Response<>(true, message, body == null ? null : new RawJson(body));
+        }
+    }
+
+    private final long maxBytes;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Version of the entries currently held; guarded by this for writes
+    private volatile long version;
+    private final AtomicLong bytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param maxBytes total size of the cached bodies; 0 disables caching
+     */
+    public ResponseCache(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Cache size cannot be negative");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    public static ResponseCache disabled() {
+        return new ResponseCache(0);
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    // How many bytes an entry computed from data at version could still take up
+    long room(long version) {
+        return version > this.version ? maxBytes : Math.max(maxBytes - bytes.get(), 0);
+    }
+
+    // The entry for key if it was stored at currentVersion, otherwise null
+    Entry get(String key, long currentVersion) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.version() != currentVersion) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry;
+    }
+
+    // Stores an entry computed from data at entry.version(), unless newer data has been cached already
+    synchronized void put(String key, Entry entry) {
+        if (entry.version() < version) {
+            return; // A mutation finished while this read ran
+        }
+        if (entry.version() > version) {
+            entries.clear();
+            bytes.set(0);
+            version = entry.version();
+        }
+        long size = entry.size();
+        if (bytes.get() + size > maxBytes) {
+            rejected.increment();
+            return;
+        }
+        Entry previous = entries.put(key, entry);
+        bytes.addAndGet(size - (previous == null ? 0 : previous.size()));
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("version", version);
+        stats.put("entries", entries.size());
+        stats.put("bytes", bytes.get());
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("rejectedFull", rejected.sum());
+        return stats;
+    }
+
+    private static long utf8Length(String text) {
+        if (text == null) {
+            return 0;
+        }
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
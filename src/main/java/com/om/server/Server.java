@@ -7,24 +7,222 @@ import com.om.service.StoreService;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
-public class Server implements Runnable {
+public class Server implements ManagedServer {
     private static final int PORT = 12345;
+    private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 10_000;
+    // Each platform thread is held by one connection for its lifetime, so the pool stays small
+    public static final int DEFAULT_PLATFORM_THREADS = 200;
+    private static final int DEFAULT_BACKLOG = 1024;
+
+    /**
+     * How accepted connections are scheduled.
+     * VIRTUAL_THREADS runs every connection on its own virtual thread (default),
+     * PLATFORM_THREADS runs them on a fixed pool of OS threads.
+     */
+    public enum ExecutionMode {
+        VIRTUAL_THREADS,
+        PLATFORM_THREADS
+    }
+
+    private final int port;
+    private final ExecutionMode executionMode;
+    private final int maxConcurrentRequests;
+    private final int backlog;
+    private final Supplier<RequestDispatcher> dispatcherFactory;
+
+    // Lifecycle: stop() closes the listening socket and run() drains, then counts down terminated
+    private final Set<HandleRequest> connections = ConcurrentHashMap.newKeySet();
+    private final CountDownLatch terminated = new CountDownLatch(1);
+    private volatile ServerSocket serverSocket;
+    private volatile RequestDispatcher dispatcher;
+    private volatile boolean stopping;
+    private volatile long drainTimeoutNanos;
+
+    public Server() {
+        this(PORT, ExecutionMode.VIRTUAL_THREADS, DEFAULT_MAX_CONCURRENT_REQUESTS, DEFAULT_BACKLOG);
+    }
+
+    /**
+     * @param port                  port to listen on
+     * @param executionMode         how connection handlers are scheduled
+     * @param maxConcurrentRequests maximum number of requests running at once across all connections;
+     *                              in platform mode also the pool size, and so the number of open connections
+     * @param backlog               maximum number of accepted-but-unserved connections queued by the OS
+     */
+    public Server(int port, ExecutionMode executionMode, int maxConcurrentRequests, int backlog) {
+        this(port, executionMode, maxConcurrentRequests, backlog, AdmissionController.unlimited());
+    }
+
+    /**
+     * @param admission decides which requests run, wait briefly or are rejected as overloaded
+     */
+    public Server(int port, ExecutionMode executionMode, int maxConcurrentRequests, int backlog,
+                  AdmissionController admission) {
+        this(port, executionMode, maxConcurrentRequests, backlog, ownDispatcher(admission));
+    }
+
+    /**
+     * @param dispatcher shared with other front ends, e.g. an {@link HttpGateway}
+     */
+    public Server(int port, ExecutionMode executionMode, int maxConcurrentRequests, int backlog,
+                  RequestDispatcher dispatcher) {
+        this(port, executionMode, maxConcurrentRequests, backlog, dispatcher == null ? null : () -> dispatcher);
+    }
+
+    private Server(int port, ExecutionMode executionMode, int maxConcurrentRequests, int backlog,
+                   Supplier<RequestDispatcher> dispatcherFactory) {
+        if (executionMode == null) {
+            throw new IllegalArgumentException("Execution mode cannot be null");
+        }
+        if (maxConcurrentRequests <= 0) {
+            throw new IllegalArgumentException("Max concurrent requests must be positive");
+        }
+        if (backlog <= 0) {
+            throw new IllegalArgumentException("Backlog must be positive");
+        }
+        if (dispatcherFactory == null) {
+            throw new IllegalArgumentException("Dispatcher cannot be null");
+        }
+        this.port = port;
+        this.executionMode = executionMode;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.backlog = backlog;
+        this.dispatcherFactory = dispatcherFactory;
+    }
 
     @Override
     public void run() {
-        StoreService storeService = new StoreService(new DaoFileImpl());
-        StoreController controller = new StoreController(storeService);
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            System.out.println("Server started on port " + PORT);
+        RequestDispatcher dispatcher = dispatcherFactory.get();
+        this.dispatcher = dispatcher;
+
+        // One permit per running request, shared by every connection, so idle persistent
+        // connections hold none
+        Semaphore requests = new Semaphore(maxConcurrentRequests);
+        // A platform thread serves one connection until it closes. While every thread is taken we
+        // stop accepting, so new clients wait in the bounded accept backlog instead of the pool's queue
+        Semaphore threads = executionMode == ExecutionMode.PLATFORM_THREADS
+                ? new Semaphore(maxConcurrentRequests) : null;
+
+        try (ServerSocket serverSocket = new ServerSocket(port, backlog);
+             ExecutorService executor = createExecutor();
+             ExecutorService pipelineExecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+            this.serverSocket = serverSocket;
+            if (stopping) {
+                return; // stop() ran before the socket existed
+            }
+            dispatcher.setReady(true);
+            System.out.println("Server started on port " + port + " (" + executionMode
+                    + ", max " + maxConcurrentRequests + " concurrent requests)");
 
-            while (true) {
-                Socket clientSocket = serverSocket.accept();
+            while (!stopping) {
+                if (threads != null) {
+                    threads.acquire();
+                }
+                Socket clientSocket;
+                try {
+                    clientSocket = serverSocket.accept();
+                } catch (IOException e) {
+                    if (threads != null) {
+                        threads.release();
+                    }
+                    if (stopping) {
+                        break; // stop() closed the socket
+                    }
+                    throw e;
+                }
                 System.out.println("New client connected: " + clientSocket.getInetAddress());
-                new Thread(new HandleRequest(clientSocket, controller)).start();
+                HandleRequest handler = new HandleRequest(clientSocket, dispatcher, pipelineExecutor, requests);
+                connections.add(handler);
+                executor.execute(() -> {
+                    try {
+                        handler.run();
+                    } finally {
+                        connections.remove(handler);
+                        if (threads != null) {
+                            threads.release();
+                        }
+                    }
+                });
             }
+            drain(executor);
         } catch (IOException e) {
             e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Executors are closed by now, so no request is still writing
+            dispatcher.flush();
+            terminated.countDown();
         }
     }
+
+    // A handler answers the requests it has read before it returns, so once the executor
+    // has no handlers left every connection is done
+    private void drain(ExecutorService executor) throws InterruptedException {
+        System.out.println("Draining " + connections.size() + " connections");
+        for (HandleRequest handler : connections) {
+            handler.stopReading();
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(drainTimeoutNanos, TimeUnit.NANOSECONDS)) {
+            System.out.println("Drain timed out, closing " + connections.size() + " connections");
+            for (HandleRequest handler : connections) {
+                handler.close();
+            }
+        }
+    }
+
+    @Override
+    public boolean isReady() {
+        RequestDispatcher current = dispatcher;
+        return current != null && current.isReady();
+    }
+
+    @Override
+    public void stop(long timeout, TimeUnit unit) throws InterruptedException {
+        RequestDispatcher current = dispatcher;
+        if (current != null) {
+            current.setReady(false);
+        }
+        drainTimeoutNanos = unit.toNanos(timeout);
+        stopping = true;
+        ServerSocket socket = serverSocket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+        // Also frees the accept loop if it is waiting for a handler permit
+        for (HandleRequest handler : connections) {
+            handler.stopReading();
+        }
+        // Requests still running after the drain timeout are allowed to finish, so a write is never cut short
+        terminated.await();
+    }
+
+    // A dispatcher over the data files, built in run() so constructing a server stays cheap
+    private static Supplier<RequestDispatcher> ownDispatcher(AdmissionController admission) {
+        if (admission == null) {
+            throw new IllegalArgumentException("Admission controller cannot be null");
+        }
+        return () -> new RequestDispatcher(new StoreController(new StoreService(new DaoFileImpl())), admission);
+    }
+
+    private ExecutorService createExecutor() {
+        return switch (executionMode) {
+            case VIRTUAL_THREADS -> Executors.newVirtualThreadPerTaskExecutor();
+            case PLATFORM_THREADS -> Executors.newFixedThreadPool(maxConcurrentRequests);
+        };
+    }
 }
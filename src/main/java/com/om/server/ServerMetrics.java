@@ -0,0 +1,81 @@
+package com.om.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-action request metrics, recorded by the transports once a response has been written.
+ *
+ * Latency runs from when the request's bytes were read to when its response was on the
+ * socket, so queueing, admission waits and serialization all count. Sizes are bytes on the
+ * wire: after compression, including frame headers. Errors are responses with
+ * {@code success: false}, whatever the cause.
+ */
+public class ServerMetrics {
+    // Names for requests that have no registered action
+    public static final String MALFORMED = "(malformed)";
+    public static final String NO_ACTION = "(no action)";
+    public static final String UNKNOWN_ACTION = "(unknown)";
+
+    private final Map<String, ActionMetrics> actions = new ConcurrentHashMap<>();
+    private final long startedAt = System.nanoTime();
+
+    public void record(String action, long startNanos, long requestBytes, long responseBytes, boolean success) {
+        ActionMetrics metrics = actions.computeIfAbsent(action, name -> new ActionMetrics());
+        metrics.latencyMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+        metrics.requestBytes.record(requestBytes);
+        metrics.responseBytes.record(responseBytes);
+        if (!success) {
+            metrics.errors.increment();
+        }
+    }
+
+    // Everything recorded so far, for the admin/metrics action
+    public Map<String, Object> snapshot() {
+        Map<String, Object> byAction = new TreeMap<>();
+        actions.forEach((name, metrics) -> byAction.put(name, metrics.summary()));
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("uptimeSeconds", TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startedAt));
+        snapshot.put("actions", byAction);
+        return snapshot;
+    }
+
+    /**
+     * The same numbers as a fixed-width table, one action per line, for reading in a
+     * terminal or pasting into a ticket.
+     */
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%-32s %9s %7s %9s %9s %9s %9s %9s %11s %11s%n", "action", "count", "errors",
+                "p50(us)", "p90(us)", "p99(us)", "p999(us)", "max(us)", "req p99(B)", "resp p99(B)"));
+        new TreeMap<>(actions).forEach((name, metrics) -> {
+            LogLinearHistogram latency = metrics.latencyMicros;
+            text.append(String.format("%-32s %9d %7d %9d %9d %9d %9d %9d %11d %11d%n", name, latency.count(),
+                    metrics.errors.sum(), latency.percentile(0.50), latency.percentile(0.90),
+                    latency.percentile(0.99), latency.percentile(0.999), latency.percentile(1.0),
+                    metrics.requestBytes.percentile(0.99), metrics.responseBytes.percentile(0.99)));
+        });
+        return text.toString();
+    }
+
+    private static class ActionMetrics {
+        private final LogLinearHistogram latencyMicros = new LogLinearHistogram();
+        private final LogLinearHistogram requestBytes = new LogLinearHistogram();
+        private final LogLinearHistogram responseBytes = new LogLinearHistogram();
+        private final LongAdder errors = new LongAdder();
+
+        Map<String, Object> summary() {
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("count", latencyMicros.count());
+            summary.put("errors", errors.sum());
+            summary.put("latencyMicros", latencyMicros.summary());
+            summary.put("requestBytes", requestBytes.summary());
+            summary.put("responseBytes", responseBytes.summary());
+            return summary;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.om.service;
+
+import com.om.dm.Product;
+import com.om.dm.Store;
+
+/**
+ * A committed change to stores, products or the graph, published by {@link StoreService}
+ * after the DAO has accepted it. Only the fields that apply to the type are set.
+ */
+public record ChangeEvent(Type type, Integer storeId, String storeName, Integer productId, String productName,
+                          Double price, String node, String from, String to, Double weight) {
+
+    public enum Type {
+        STORE_ADDED,
+        STORE_UPDATED,
+        STORE_DELETED,
+        PRODUCT_ADDED,
+        PRODUCT_UPDATED,
+        PRODUCT_REMOVED,
+        NODE_ADDED,
+        NODE_REMOVED,
+        EDGE_ADDED,
+        EDGE_REMOVED,
+        // All data was cleared; subscribers should reload everything
+        CLEARED
+    }
+
+    static ChangeEvent store(Type type, Store store) {
+        return new ChangeEvent(type, store.getId(), store.getName(), null, null, null, null, null, null, null);
+    }
+
+    static ChangeEvent product(Type type, int storeId, Product product) {
+        return new ChangeEvent(type, storeId, null, product.getId(), product.getName(), product.getPrice(),
+                null, null, null, null);
+    }
+
+    static ChangeEvent productRemoved(int storeId, String productName) {
+        return new ChangeEvent(Type.PRODUCT_REMOVED, storeId, null, null, productName, null, null, null, null, null);
+    }
+
+    static ChangeEvent node(Type type, String node) {
+        return new ChangeEvent(type, null, null, null, null, null, node, null, null, null);
+    }
+
+    static ChangeEvent edge(Type type, String from, String to, Double weight) {
+        return new ChangeEvent(type, null, null, null, null, null, null, from, to, weight);
+    }
+
+    static ChangeEvent cleared() {
+        return new ChangeEvent(Type.CLEARED, null, null, null, null, null, null, null, null, null);
+    }
+}
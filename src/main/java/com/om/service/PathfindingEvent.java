@@ -0,0 +1,59 @@
+package com.om.service;
+
+import com.om.algorithm.Edge;
+import com.om.dm.Store;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JFR event for a nearest-store search, whichever DAO runs it. Graph sizes are only
+ * counted when a recording actually wants the event.
+ */
+@Name("com.om.Pathfinding")
+@Label("Nearest Store Search")
+@Category({"BuyNearMe", "Routing"})
+@Description("A search for the nearest store that has a product")
+class PathfindingEvent extends Event {
+    @Label("From")
+    String from;
+
+    @Label("Product")
+    String product;
+
+    @Label("Nodes")
+    int nodes;
+
+    @Label("Edges")
+    @Description("Directed adjacency entries; an undirected edge counts twice")
+    int edges;
+
+    @Label("Found")
+    boolean found;
+
+    @Label("Distance")
+    double distance;
+
+    @Label("Path Length")
+    int pathLength;
+
+    // Ends the event and commits it if a recording wants it; store is null if none was found
+    void finish(String from, String product, Map<String, List<Edge>> graph, Store store) {
+        end();
+        if (shouldCommit()) {
+            this.from = from;
+            this.product = product;
+            this.nodes = graph.size();
+            this.edges = graph.values().stream().mapToInt(List::size).sum();
+            this.found = store != null;
+            this.distance = store == null ? Double.NaN : store.getDistanceToStore();
+            this.pathLength = store == null || store.getPathToStore() == null ? 0 : store.getPathToStore().size();
+            commit();
+        }
+    }
+}
@@ -5,16 +5,31 @@ import com.om.algorithm.IAlgoShortestPath;
 import com.om.algorithm.DijkstraAlgoShortestPathImpl;
 import com.om.algorithm.AStarAlgoShortestPathImpl;
 import com.om.dao.IDao;
+import com.om.dm.Page;
 import com.om.dm.Product;
 import com.om.dm.Store;
+import com.om.util.ProductNames;
+import com.om.util.SingleFlight;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
 
 public class StoreService {
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    public static final int MAX_PAGE_SIZE = 1000;
+
     private final IDao dao;
     private IAlgoShortestPath algorithm;
     private final Map<String, Point2D> nodeCoordinates;
     private final Map<String, Set<Edge>> graphStructure;
+    // Told about every committed change, on the thread that made it; must not block
+    private final List<Consumer<ChangeEvent>> changeListeners = new CopyOnWriteArrayList<>();
+    // Searches in progress, shared by callers asking the same question at the same time
+    private final SingleFlight<NearestQuery, Store> nearestSearches = new SingleFlight<>();
+    private final SingleFlight<String, Store> cheapestSearches = new SingleFlight<>();
 
     public StoreService(IDao dao) {
         this(dao, new DijkstraAlgoShortestPathImpl());
@@ -68,6 +83,7 @@ public class StoreService {
         graphStructure.putIfAbsent(nodeName, new HashSet<>());
         algorithm.addNode(nodeName, x, y);
         dao.saveNode(nodeName, x, y);
+        publish(ChangeEvent.node(ChangeEvent.Type.NODE_ADDED, nodeName));
     }
 
     // Add an undirected edge between two nodes
@@ -82,6 +98,7 @@ public class StoreService {
         graphStructure.get(to).add(new Edge(to, from, weight));
         algorithm.addEdge(from, to, weight);
         dao.saveEdge(from, to, weight);
+        publish(ChangeEvent.edge(ChangeEvent.Type.EDGE_ADDED, from, to, weight));
     }
 
     // Remove a node and all its edges
@@ -100,6 +117,7 @@ public class StoreService {
         nodeCoordinates.remove(nodeName);
         algorithm.removeNode(nodeName);
         dao.removeNode(nodeName);
+        publish(ChangeEvent.node(ChangeEvent.Type.NODE_REMOVED, nodeName));
     }
 
     // Remove an edge between nodes
@@ -109,6 +127,7 @@ public class StoreService {
         graphStructure.get(to).removeIf(edge -> edge.getToNode().equals(from));
         algorithm.removeEdge(from, to);
         dao.removeEdge(from, to);
+        publish(ChangeEvent.edge(ChangeEvent.Type.EDGE_REMOVED, from, to, null));
     }
 
     // Add a store at a given location
@@ -129,6 +148,7 @@ public class StoreService {
         }
         
         dao.addStore(store);
+        publish(ChangeEvent.store(ChangeEvent.Type.STORE_ADDED, store));
     }
 
     // Product operations
@@ -140,6 +160,7 @@ public class StoreService {
             throw new IllegalArgumentException("Product cannot be null");
         }
         dao.addProductToStore(storeId, product);
+        publish(ChangeEvent.product(ChangeEvent.Type.PRODUCT_ADDED, storeId, product));
     }
 
     public void removeProductFromStore(int storeId, String productName) {
@@ -147,6 +168,7 @@ public class StoreService {
             throw new IllegalArgumentException("Product name cannot be null or empty");
         }
         dao.removeProductFromStore(storeId, productName);
+        publish(ChangeEvent.productRemoved(storeId, productName));
     }
 
     public List<Product> getProductsByStoreId(int storeId) {
@@ -164,6 +186,7 @@ public class StoreService {
             throw new IllegalArgumentException("Product ID must be positive");
         }
         dao.updateProductInStore(storeId, product);
+        publish(ChangeEvent.product(ChangeEvent.Type.PRODUCT_UPDATED, storeId, product));
     }
 
     public Store findClosestStoreWithProduct(String userLocation, String productName) {
@@ -171,14 +194,26 @@ public class StoreService {
         if (productName == null || productName.trim().isEmpty()) {
             throw new IllegalArgumentException("Product name cannot be null or empty");
         }
-        return dao.findNearestStoreWithProduct(userLocation, productName, getGraph());
+        // Identical concurrent searches share one Dijkstra run; product names differing only in case are identical
+        return nearestSearches.run(new NearestQuery(userLocation, ProductNames.key(productName)), () -> {
+            PathfindingEvent event = new PathfindingEvent();
+            event.begin();
+            Map<String, List<Edge>> graph = getGraph();
+            Store store = null;
+            try {
+                store = dao.findNearestStoreWithProduct(userLocation, productName, graph);
+                return store;
+            } finally {
+                event.finish(userLocation, productName, graph, store);
+            }
+        });
     }
 
     public Store findCheapestStoreWithProduct(String productName) {
         if (productName == null || productName.trim().isEmpty()) {
             throw new IllegalArgumentException("Product name cannot be null or empty");
         }
-        return dao.findCheapestStoreWithProduct(productName);
+        return cheapestSearches.run(ProductNames.key(productName), () -> dao.findCheapestStoreWithProduct(productName));
     }
 
     // Get all stores
@@ -186,6 +221,65 @@ public class StoreService {
         return dao.getAllStores();
     }
 
+    // Get one page of stores in ID order. The cursor holds the last ID returned, so pages
+    // stay consistent while stores are added or deleted; a null cursor starts from the beginning
+    public Page<Store> getStoresPage(String cursor, Integer limit) {
+        int pageSize = pageSize(limit);
+        int afterId = decodeCursor(cursor, "s");
+        return toPage(dao.getStoresAfter(afterId, pageSize + 1), pageSize, "s", Store::getId);
+    }
+
+    // Get one page of a store's products in ID order
+    public Page<Product> getProductsPage(int storeId, String cursor, Integer limit) {
+        if (storeId <= 0) {
+            throw new IllegalArgumentException("Store ID must be positive");
+        }
+        int pageSize = pageSize(limit);
+        String kind = "p" + storeId;
+        int afterId = decodeCursor(cursor, kind);
+        return toPage(dao.getProductsAfter(storeId, afterId, pageSize + 1), pageSize, kind, Product::getId);
+    }
+
+    private static int pageSize(Integer limit) {
+        if (limit == null) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        return Math.min(limit, MAX_PAGE_SIZE);
+    }
+
+    // One extra row is fetched to tell whether another page follows
+    private static <T> Page<T> toPage(List<T> rows, int pageSize, String kind, ToIntFunction<T> id) {
+        if (rows.size() <= pageSize) {
+            return new Page<>(rows, null);
+        }
+        List<T> items = new ArrayList<>(rows.subList(0, pageSize));
+        return new Page<>(items, encodeCursor(kind, id.applyAsInt(items.get(pageSize - 1))));
+    }
+
+    // Cursors are opaque to clients: base64 of "<kind>:<last id>"
+    private static String encodeCursor(String kind, int lastId) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((kind + ":" + lastId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static int decodeCursor(String cursor, String kind) {
+        if (cursor == null || cursor.isEmpty()) {
+            return 0;
+        }
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if (!value.startsWith(kind + ":")) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            return Integer.parseInt(value.substring(kind.length() + 1));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+
     // Get store by ID
     public Store getStoreById(int id) {
         if (id <= 0) {
@@ -203,6 +297,7 @@ public class StoreService {
             throw new IllegalArgumentException("Store location does not exist in graph: " + store.getLocationId());
         }
         dao.updateStore(store);
+        publish(ChangeEvent.store(ChangeEvent.Type.STORE_UPDATED, store));
     }
 
     // Delete store
@@ -214,6 +309,7 @@ public class StoreService {
         if (store != null) {
             algorithm.removeNode(store.getLocationId());
             dao.deleteStore(id);
+            publish(ChangeEvent.store(ChangeEvent.Type.STORE_DELETED, store));
         }
     }
 
@@ -288,6 +384,29 @@ public class StoreService {
         }
     }
 
+    // Change notifications, e.g. for clients that subscribe instead of polling
+    public void addChangeListener(Consumer<ChangeEvent> listener) {
+        changeListeners.add(listener);
+    }
+
+    public void removeChangeListener(Consumer<ChangeEvent> listener) {
+        changeListeners.remove(listener);
+    }
+
+    private void publish(ChangeEvent event) {
+        // A search started before this change may miss it; later callers start a new one
+        nearestSearches.forget();
+        cheapestSearches.forget();
+        for (Consumer<ChangeEvent> listener : changeListeners) {
+            listener.accept(event);
+        }
+    }
+
+    // Persist anything the DAO still holds in memory, e.g. before the server exits
+    public void flush() {
+        dao.flush();
+    }
+
     // Clear all data and reset the graph
     public void clear() {
         // Clear the DAO data
@@ -299,6 +418,11 @@ public class StoreService {
         
         // Reset the algorithm
         this.algorithm = new DijkstraAlgoShortestPathImpl();
+        publish(ChangeEvent.cleared());
+    }
+
+    // Key for sharing nearest-store searches; productName is folded with ProductNames.key
+    private record NearestQuery(String userLocation, String productName) {
     }
 
     // Inner class to represent 2D coordinates
@@ -0,0 +1,71 @@
+package com.om.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The point in time by which the current request must be answered.
+ *
+ * The dispatcher binds a request's deadline to the thread that runs it. Slow code (file
+ * loads, path searches) calls {@link #check()} at convenient points and gives up with a
+ * {@link DeadlineExceededException} once the deadline has passed, so a thread is not tied
+ * up computing an answer the client has stopped waiting for. Without a bound deadline
+ * {@link #check()} does nothing.
+ */
+public final class Deadline {
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    // In System.nanoTime() terms
+    private final long expiresAt;
+
+    private Deadline(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    // A deadline budgetMillis after the given System.nanoTime() instant
+    public static Deadline after(long startNanos, long budgetMillis) {
+        return new Deadline(startNanos + TimeUnit.MILLISECONDS.toNanos(budgetMillis));
+    }
+
+    public boolean isExpired() {
+        return System.nanoTime() - expiresAt >= 0;
+    }
+
+    public long remainingMillis() {
+        long remaining = expiresAt - System.nanoTime();
+        return remaining <= 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(remaining);
+    }
+
+    // The deadline bound to the current thread, or null
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    // Throws if the current thread's deadline has passed
+    public static void check() {
+        Deadline deadline = CURRENT.get();
+        if (deadline != null && deadline.isExpired()) {
+            throw new DeadlineExceededException();
+        }
+    }
+
+    /**
+     * Binds deadline (null for none) to the current thread until the returned scope is
+     * closed, which restores whatever was bound before.
+     */
+    public static Scope bind(Deadline deadline) {
+        Deadline previous = CURRENT.get();
+        CURRENT.set(deadline);
+        return () -> {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
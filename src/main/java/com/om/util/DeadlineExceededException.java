@@ -0,0 +1,12 @@
+package com.om.util;
+
+/**
+ * Thrown by {@link Deadline#check()} when the current request ran out of time.
+ */
+public class DeadlineExceededException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public DeadlineExceededException() {
+        super("Request deadline exceeded");
+    }
+}
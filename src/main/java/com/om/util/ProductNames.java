@@ -0,0 +1,21 @@
+package com.om.util;
+
+/**
+ * Product names are matched ignoring case everywhere (the DAOs compare them with
+ * equalsIgnoreCase). {@link #key} folds a name so that equal keys mean equalsIgnoreCase
+ * names, for use in maps, sets and filters.
+ */
+public final class ProductNames {
+    private ProductNames() {
+    }
+
+    // Folds each code point as equalsIgnoreCase compares them; null stays null
+    public static String key(String name) {
+        if (name == null) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder(name.length());
+        name.codePoints().forEach(c -> key.appendCodePoint(Character.toLowerCase(Character.toUpperCase(c))));
+        return key.toString();
+    }
+}
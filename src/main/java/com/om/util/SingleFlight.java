@@ -0,0 +1,83 @@
+package com.om.util;
+
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Runs a computation once for all callers that ask for the same key at the same time.
+ *
+ * The first caller for a key computes the value on its own thread; callers that arrive
+ * while it runs wait for that result instead of computing it again, and get the same
+ * value or exception. Nothing is cached: once the computation finishes, the next caller
+ * starts a new one. {@link #forget()} detaches the running computations, so callers that
+ * arrive after a write don't join one that may have read the data before it.
+ *
+ * A waiting caller honors its own {@link Deadline}. If the computing caller ran out of
+ * time but a waiter still has some, the waiter computes the value itself. Thread-safe.
+ */
+public final class SingleFlight<K, V> {
+    private final Map<K, CompletableFuture<V>> flights = new ConcurrentHashMap<>();
+
+    public V run(K key, Supplier<V> computation) {
+        while (true) {
+            CompletableFuture<V> mine = new CompletableFuture<>();
+            CompletableFuture<V> flight = flights.putIfAbsent(key, mine);
+            if (flight == null) {
+                return compute(key, mine, computation);
+            }
+            try {
+                return await(flight);
+            } catch (DeadlineExceededException e) {
+                Deadline deadline = Deadline.current();
+                if (deadline != null && deadline.isExpired()) {
+                    throw e;
+                }
+                // The computing caller's deadline was shorter than ours, or we have none; try again
+            }
+        }
+    }
+
+    // Detaches running computations; their current waiters still get their results
+    public void forget() {
+        flights.clear();
+    }
+
+    private V compute(K key, CompletableFuture<V> mine, Supplier<V> computation) {
+        try {
+            V value = computation.get();
+            mine.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(key, mine);
+        }
+    }
+
+    private static <V> V await(CompletableFuture<V> flight) {
+        Deadline deadline = Deadline.current();
+        try {
+            return deadline == null ? flight.get() : flight.get(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new DeadlineExceededException();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for a shared result");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.om.dao;
+
+import com.om.dm.Product;
+import com.om.dm.Store;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test suite for the DAO over memory-mapped record files.
+ * Only stores and products are tested; the graph is kept in the shared graph file.
+ *
+ * Test Coverage:
+ * - Importing the data file when the record files are new
+ * - Stores, products and prices surviving close and reopen
+ * - Reuse of freed product slots
+ * - Growing the record files past their initial size
+ * - Damaged record files failing to open
+ * - Deleted stores leaving the cheapest-store lookup
+ */
+@DisplayName("Mapped DAO Tests")
+public class DaoMappedImplTest {
+
+    @TempDir
+    Path dir;
+
+    private String recordDir;
+    private String storesFile;
+    private DaoMappedImpl dao;
+
+    /**
+     * Open a DAO over new record files before each test.
+     */
+    @BeforeEach
+    void setUp() {
+        recordDir = dir.resolve("records").toString();
+        storesFile = dir.resolve("datasource.txt").toString();
+        dao = new DaoMappedImpl(recordDir, storesFile);
+    }
+
+    @AfterEach
+    void tearDown() {
+        dao.close();
+    }
+
+    /**
+     * Test that new record files start with the stores in the data file.
+     */
+    @Test
+    @DisplayName("Should import the data file on first open")
+    void testImportsDataFile() throws IOException {
+        dao.close();
+        Map<Integer, Store> stores = new HashMap<>();
+        Store store = new Store(3, "Store 3", 1.0, 2.0, "A");
+        store.addProduct(new Product(7, "Milk", 3.5));
+        stores.put(3, store);
+        DataFiles.write(storesFile, stores);
+
+        dao = new DaoMappedImpl(dir.resolve("imported").toString(), storesFile);
+
+        assertEquals("Store 3", dao.getStoreById(3).getName());
+        assertEquals(7, dao.getProductsByStoreId(3).get(0).getId());
+    }
+
+    /**
+     * Test that everything written is read back after close and reopen.
+     * Verifies names from the string heap and updated prices.
+     */
+    @Test
+    @DisplayName("Should keep stores and products across reopen")
+    void testRoundTripAcrossReopen() {
+        dao.addStore(new Store(0, "Store 1", 1.0, 2.0, "A"));
+        dao.addStore(new Store(0, "Store 2", 3.0, 4.0, "B"));
+        dao.addProductToStore(1, new Product(0, "Milk", 3.5));
+        dao.addProductToStore(2, new Product(0, "Bread", 2.0));
+        int milk = dao.getProductsByStoreId(1).get(0).getId();
+        dao.updateProductInStore(1, new Product(milk, "Milk", 2.75));
+        dao.close();
+
+        dao = new DaoMappedImpl(recordDir, storesFile);
+
+        assertEquals(2, dao.getAllStores().size());
+        Store store = dao.getStoreById(2);
+        assertEquals("Store 2", store.getName());
+        assertEquals("B", store.getLocationId());
+        assertEquals(4.0, store.getLongitude());
+        assertEquals("Bread", dao.getProductsByStoreId(2).get(0).getName());
+        assertEquals(2.75, dao.getProductsByStoreId(1).get(0).getPrice());
+    }
+
+    /**
+     * Test that a removed product's slot is reused instead of growing the file.
+     */
+    @Test
+    @DisplayName("Should reuse freed product slots")
+    void testReusesFreedSlots() throws IOException {
+        dao.addStore(new Store(0, "Store 1", 1.0, 2.0, "A"));
+        dao.addProductToStore(1, new Product(0, "Milk", 3.5));
+        dao.addProductToStore(1, new Product(0, "Bread", 2.0));
+        dao.flush();
+        long used = productSlotsUsed();
+
+        dao.removeProductFromStore(1, "Milk");
+        dao.addProductToStore(1, new Product(0, "Eggs", 5.0));
+        dao.flush();
+
+        assertEquals(used, productSlotsUsed());
+        assertEquals(List.of("Bread", "Eggs"),
+                dao.getProductsByStoreId(1).stream().map(Product::getName).toList());
+    }
+
+    /**
+     * Test that the record files grow past their initial size and read back after reopen.
+     */
+    @Test
+    @DisplayName("Should grow record files as they fill")
+    void testGrowsPastInitialSize() {
+        for (int i = 1; i <= 3000; i++) {
+            dao.addStore(new Store(0, "Store " + i, i, i, "Node " + i));
+            dao.addProductToStore(i, new Product(0, "Product " + i, i));
+        }
+        dao.close();
+
+        dao = new DaoMappedImpl(recordDir, storesFile);
+
+        assertEquals(3000, dao.getAllStores().size());
+        assertEquals("Store 2999", dao.getStoreById(2999).getName());
+        assertEquals("Product 3000", dao.getProductsByStoreId(3000).get(0).getName());
+    }
+
+    /**
+     * Test that a record file with a damaged header is refused.
+     */
+    @Test
+    @DisplayName("Should fail on a damaged record file")
+    void testDamagedHeader() throws IOException {
+        dao.addStore(new Store(0, "Store 1", 1.0, 2.0, "A"));
+        dao.close();
+        Path stores = Path.of(recordDir, "stores.rec");
+        byte[] contents = Files.readAllBytes(stores);
+        contents[0] ^= 1;
+        Files.write(stores, contents);
+
+        assertThrows(IllegalStateException.class, () -> new DaoMappedImpl(recordDir, storesFile));
+        dao = new DaoMappedImpl(dir.resolve("fresh").toString(), storesFile);
+    }
+
+    /**
+     * Test that a deleted store is no longer found as the cheapest.
+     */
+    @Test
+    @DisplayName("Should drop deleted stores from the cheapest lookup")
+    void testDeleteStoreUpdatesCheapest() {
+        dao.addStore(new Store(0, "Store 1", 1.0, 2.0, "A"));
+        dao.addStore(new Store(0, "Store 2", 3.0, 4.0, "B"));
+        dao.addProductToStore(1, new Product(0, "Milk", 2.0));
+        dao.addProductToStore(2, new Product(0, "Milk", 3.0));
+
+        dao.deleteStore(1);
+
+        assertEquals(2, dao.findCheapestStoreWithProduct("milk").getId());
+        assertNull(dao.getStoreById(1));
+    }
+
+    // The number of product slots in use, from the products file's header
+    private long productSlotsUsed() throws IOException {
+        byte[] contents = Files.readAllBytes(Path.of(recordDir, "products.rec"));
+        return ByteBuffer.wrap(contents).getLong(8);
+    }
+}
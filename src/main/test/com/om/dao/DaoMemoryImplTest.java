@@ -0,0 +1,165 @@
+package com.om.dao;
+
+import com.om.algorithm.Edge;
+import com.om.dm.Product;
+import com.om.dm.Store;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test suite for the in-memory DAO with write-behind persistence.
+ * Tests DaoMemoryImpl without a mutation log, writing the data files back.
+ *
+ * Test Coverage:
+ * - Stores, products and the graph surviving close and reopen
+ * - Background flush writing the data files without a close
+ * - Reading data files written by DaoFileImpl
+ * - Product ids continuing after reopen
+ * - Callers getting copies rather than the stored objects
+ */
+@DisplayName("In-Memory DAO Tests")
+public class DaoMemoryImplTest {
+
+    @TempDir
+    Path dir;
+
+    private String storesFile;
+    private String graphFile;
+    private DaoMemoryImpl dao;
+
+    /**
+     * Open a DAO over empty data files in a fresh directory before each test.
+     */
+    @BeforeEach
+    void setUp() {
+        storesFile = dir.resolve("datasource.txt").toString();
+        graphFile = dir.resolve("graph.dat").toString();
+        dao = new DaoMemoryImpl(storesFile, graphFile, 60_000, null);
+    }
+
+    @AfterEach
+    void tearDown() {
+        dao.close();
+    }
+
+    /**
+     * Test that everything written is read back after close and reopen.
+     * Verifies stores, products, nodes and edges all reach the data files.
+     */
+    @Test
+    @DisplayName("Should keep stores, products and graph across reopen")
+    void testRoundTripAcrossReopen() {
+        dao.saveNode("A", 1.0, 2.0);
+        dao.saveNode("B", 3.0, 4.0);
+        dao.saveEdge("A", "B", 2.5);
+        dao.addStore(new Store(0, "Store 1", 1.0, 2.0, "A"));
+        dao.addStore(new Store(0, "Store 2", 3.0, 4.0, "B"));
+        dao.addProductToStore(1, new Product(0, "Milk", 3.5));
+        dao.addProductToStore(2, new Product(0, "Bread", 2.0));
+        dao.close();
+
+        dao = new DaoMemoryImpl(storesFile, graphFile, 60_000, null);
+
+        assertEquals(2, dao.getAllStores().size());
+        assertEquals("Store 2", dao.getStoreById(2).getName());
+        List<Product> products = dao.getProductsByStoreId(1);
+        assertEquals(1, products.size());
+        assertEquals("Milk", products.get(0).getName());
+        assertEquals(3.5, products.get(0).getPrice());
+        assertArrayEquals(new double[]{3.0, 4.0}, dao.getAllNodesWithCoordinates().get("B"));
+        Edge edge = dao.getAllEdges().get("A").get(0);
+        assertEquals("B", edge.getToNode());
+        assertEquals(2.5, edge.getWeight());
+    }
+
+    /**
+     * Test that the background writer persists changes without a close.
+     * Verifies the data file catches up within the flush interval.
+     */
+    @Test
+    @DisplayName("Should write data files in the background")
+    void testWriteBehind() throws InterruptedException {
+        dao.close();
+        dao = new DaoMemoryImpl(storesFile, graphFile, 20, null);
+        dao.addStore(new Store(0, "Store 1", 1.0, 2.0, "A"));
+
+        Map<Integer, Store> onDisk = DataFiles.readStores(storesFile);
+        for (int i = 0; i < 250 && onDisk.isEmpty(); i++) {
+            Thread.sleep(20);
+            onDisk = DataFiles.readStores(storesFile);
+        }
+
+        assertEquals("Store 1", onDisk.get(1).getName());
+    }
+
+    /**
+     * Test that data files written by DaoFileImpl are loaded as they are.
+     * Both DAOs must be usable on the same data.
+     */
+    @Test
+    @DisplayName("Should read data files written by the file DAO")
+    void testReadsFileDaoData() {
+        dao.close();
+        DaoFileImpl fileDao = new DaoFileImpl(storesFile);
+        fileDao.addStore(new Store(0, "Store 1", 1.0, 2.0, "A"));
+        fileDao.addProductToStore(1, new Product(0, "Milk", 3.5));
+
+        dao = new DaoMemoryImpl(storesFile, graphFile, 60_000, null);
+
+        assertEquals("Store 1", dao.getStoreById(1).getName());
+        assertEquals("Milk", dao.getProductsByStoreId(1).get(0).getName());
+    }
+
+    /**
+     * Test that product ids are not reused after reopen.
+     */
+    @Test
+    @DisplayName("Should continue product ids after reopen")
+    void testProductIdsAfterReopen() {
+        dao.addStore(new Store(0, "Store 1", 1.0, 2.0, "A"));
+        dao.addProductToStore(1, new Product(0, "Milk", 3.5));
+        dao.addProductToStore(1, new Product(0, "Bread", 2.0));
+        dao.close();
+
+        dao = new DaoMemoryImpl(storesFile, graphFile, 60_000, null);
+        dao.addProductToStore(1, new Product(0, "Eggs", 5.0));
+
+        List<Product> products = dao.getProductsByStoreId(1);
+        assertEquals(3, products.get(2).getId());
+    }
+
+    /**
+     * Test that changing a returned store does not change the stored one.
+     */
+    @Test
+    @DisplayName("Should return copies of stored objects")
+    void testReturnsCopies() {
+        dao.addStore(new Store(0, "Store 1", 1.0, 2.0, "A"));
+        dao.addProductToStore(1, new Product(0, "Milk", 3.5));
+
+        Store store = dao.getStoreById(1);
+        store.setName("Changed");
+        store.getProducts().get(0).setPrice(99.0);
+
+        assertEquals("Store 1", dao.getStoreById(1).getName());
+        assertEquals(3.5, dao.getProductsByStoreId(1).get(0).getPrice());
+    }
+
+    /**
+     * Test validation: the flush interval must be positive.
+     */
+    @Test
+    @DisplayName("Should throw exception for non-positive flush interval")
+    void testInvalidFlushInterval() {
+        assertThrows(IllegalArgumentException.class, () -> new DaoMemoryImpl(storesFile, graphFile, 0, null));
+    }
+}
@@ -0,0 +1,193 @@
+package com.om.dao;
+
+import com.om.dm.Product;
+import com.om.dm.Store;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Test suite for the checksummed data file format shared by the DAOs.
+ *
+ * Test Coverage:
+ * - Writing and reading back a store map
+ * - Missing, empty and legacy (header-less) files
+ * - Damaged, truncated and unrecognized files failing to read
+ * - No temporary files left behind by a write
+ * - File permissions kept across writes
+ */
+@DisplayName("Data File Tests")
+public class DataFilesTest {
+
+    @TempDir
+    Path dir;
+
+    private String fileName;
+
+    /**
+     * Point each test at a data file in a fresh directory.
+     */
+    @BeforeEach
+    void setUp() {
+        fileName = dir.resolve("datasource.txt").toString();
+    }
+
+    /**
+     * Test that a written store map is read back unchanged.
+     */
+    @Test
+    @DisplayName("Should read back what was written")
+    void testRoundTrip() throws IOException {
+        DataFiles.write(fileName, sampleStores());
+
+        Map<Integer, Store> stores = DataFiles.readStores(fileName);
+
+        assertEquals(2, stores.size());
+        assertEquals("Store 2", stores.get(2).getName());
+        assertEquals("Milk", stores.get(1).getProducts().get(0).getName());
+    }
+
+    /**
+     * Test that a missing or empty file reads as no data.
+     */
+    @Test
+    @DisplayName("Should read missing and empty files as empty")
+    void testMissingAndEmptyFiles() throws IOException {
+        assertTrue(DataFiles.read(fileName).isEmpty());
+
+        Files.createFile(Path.of(fileName));
+
+        assertTrue(DataFiles.read(fileName).isEmpty());
+    }
+
+    /**
+     * Test that files written before the header was added are still read.
+     */
+    @Test
+    @DisplayName("Should read legacy files without a header")
+    void testReadsLegacyFile() throws IOException {
+        try (OutputStream out = Files.newOutputStream(Path.of(fileName));
+             ObjectOutputStream oos = new ObjectOutputStream(out)) {
+            oos.writeObject(sampleStores());
+        }
+
+        assertEquals("Store 1", DataFiles.readStores(fileName).get(1).getName());
+    }
+
+    /**
+     * Test that a changed payload byte is caught by the checksum.
+     */
+    @Test
+    @DisplayName("Should fail on a damaged file")
+    void testDamagedFile() throws IOException {
+        DataFiles.write(fileName, sampleStores());
+        byte[] contents = Files.readAllBytes(Path.of(fileName));
+        contents[contents.length - 10] ^= 1;
+        Files.write(Path.of(fileName), contents);
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> DataFiles.read(fileName));
+        assertTrue(e.getMessage().contains("checksum"));
+    }
+
+    /**
+     * Test that a file cut short of its recorded length fails to read.
+     */
+    @Test
+    @DisplayName("Should fail on a truncated file")
+    void testTruncatedFile() throws IOException {
+        DataFiles.write(fileName, sampleStores());
+        byte[] contents = Files.readAllBytes(Path.of(fileName));
+        Files.write(Path.of(fileName), Arrays.copyOf(contents, contents.length / 2));
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> DataFiles.read(fileName));
+        assertTrue(e.getMessage().contains("truncated"));
+    }
+
+    /**
+     * Test that a file which is neither format fails to read.
+     */
+    @Test
+    @DisplayName("Should fail on an unrecognized file")
+    void testUnrecognizedFile() throws IOException {
+        Files.writeString(Path.of(fileName), "not a data file at all");
+
+        assertThrows(IllegalStateException.class, () -> DataFiles.read(fileName));
+    }
+
+    /**
+     * Test that a file from a newer format version is refused.
+     */
+    @Test
+    @DisplayName("Should fail on an unsupported format version")
+    void testUnsupportedVersion() throws IOException {
+        DataFiles.write(fileName, sampleStores());
+        byte[] contents = Files.readAllBytes(Path.of(fileName));
+        ByteBuffer.wrap(contents).putInt(4, 99);
+        Files.write(Path.of(fileName), contents);
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> DataFiles.read(fileName));
+        assertTrue(e.getMessage().contains("version 99"));
+    }
+
+    /**
+     * Test that repeated writes leave only the data file in the directory.
+     */
+    @Test
+    @DisplayName("Should not leave temporary files behind")
+    void testNoTemporaryFiles() throws IOException {
+        DataFiles.write(fileName, sampleStores());
+        DataFiles.write(fileName, new HashMap<>());
+
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+        assertTrue(DataFiles.read(fileName).isEmpty());
+    }
+
+    /**
+     * Test that a rewrite keeps the file's permissions, and a new file gets the umask's.
+     */
+    @Test
+    @DisplayName("Should keep file permissions across writes")
+    void testKeepsPermissions() throws IOException {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        Path file = Path.of(fileName);
+        DataFiles.write(fileName, sampleStores());
+        assertEquals(Files.getPosixFilePermissions(Files.createFile(dir.resolve("plain"))),
+                Files.getPosixFilePermissions(file));
+
+        Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-r-----");
+        Files.setPosixFilePermissions(file, permissions);
+        DataFiles.write(fileName, new HashMap<>());
+
+        assertEquals(permissions, Files.getPosixFilePermissions(file));
+    }
+
+    private static Map<Integer, Store> sampleStores() {
+        Map<Integer, Store> stores = new HashMap<>();
+        Store first = new Store(1, "Store 1", 1.0, 2.0, "A");
+        first.addProduct(new Product(1, "Milk", 3.5));
+        stores.put(1, first);
+        stores.put(2, new Store(2, "Store 2", 3.0, 4.0, "B"));
+        return stores;
+    }
+}
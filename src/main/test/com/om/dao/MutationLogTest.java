@@ -0,0 +1,214 @@
+package com.om.dao;
+
+import com.om.dm.Product;
+import com.om.dm.Store;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test suite for the write-ahead mutation log behind DaoMemoryImpl's log mode.
+ * A crash is simulated by opening a second DAO on the same directory without closing the first.
+ *
+ * Test Coverage:
+ * - Recovery of every logged mutation after a crash
+ * - A torn record at the end of the log being cut off
+ * - A damaged record with more records after it failing recovery
+ * - Compaction into a snapshot, and the data files kept current
+ */
+@DisplayName("Mutation Log Tests")
+public class MutationLogTest {
+
+    @TempDir
+    Path dir;
+
+    private String storesFile;
+    private String graphFile;
+    private Path logDir;
+    private DaoMemoryImpl dao;
+
+    /**
+     * Open a log-backed DAO over empty data files before each test.
+     */
+    @BeforeEach
+    void setUp() {
+        storesFile = dir.resolve("datasource.txt").toString();
+        graphFile = dir.resolve("graph.dat").toString();
+        logDir = dir.resolve("wal");
+        dao = open(1L << 30);
+    }
+
+    @AfterEach
+    void tearDown() {
+        dao.close();
+    }
+
+    /**
+     * Test that mutations are recovered from the log without a close.
+     */
+    @Test
+    @DisplayName("Should recover all mutations after a crash")
+    void testRecoversAfterCrash() {
+        addStores(3);
+        dao.addProductToStore(2, new Product(0, "Milk", 3.5));
+        dao.saveNode("A", 1.0, 2.0);
+        dao.deleteStore(3);
+
+        dao = open(1L << 30);
+
+        assertEquals(List.of(1, 2), dao.getAllStores().stream().map(Store::getId).toList());
+        assertEquals("Milk", dao.getProductsByStoreId(2).get(0).getName());
+        assertTrue(dao.getAllNodes().contains("A"));
+    }
+
+    /**
+     * Test that a partial record at the end of the log is dropped.
+     * Verifies the records before it are kept and the file is cut back to them.
+     */
+    @Test
+    @DisplayName("Should cut off a torn record at the end of the log")
+    void testTornTailIsDropped() throws IOException {
+        addStores(3);
+        Path segment = newestSegment();
+        long size = Files.size(segment);
+        Files.write(segment, new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        dao = open(1L << 30);
+
+        assertEquals(3, dao.getAllStores().size());
+        assertEquals(size, Files.size(segment));
+    }
+
+    /**
+     * Test that a last record failing its checksum is treated as torn.
+     */
+    @Test
+    @DisplayName("Should drop a damaged last record")
+    void testDamagedLastRecordIsDropped() throws IOException {
+        addStores(3);
+        Path segment = newestSegment();
+        List<Long> records = recordOffsets(segment);
+        flipByte(segment, records.get(2) + 9);
+
+        dao = open(1L << 30);
+
+        assertEquals(2, dao.getAllStores().size());
+    }
+
+    /**
+     * Test that a damaged record followed by more records fails recovery.
+     * Dropping it would silently lose the later, possibly synced, records.
+     */
+    @Test
+    @DisplayName("Should fail on a damaged record in the middle of the log")
+    void testDamagedRecordInMiddleFails() throws IOException {
+        addStores(3);
+        Path segment = newestSegment();
+        List<Long> records = recordOffsets(segment);
+        long size = Files.size(segment);
+        flipByte(segment, records.get(0) + 9);
+
+        assertThrows(IllegalStateException.class, () -> open(1L << 30));
+        assertEquals(size, Files.size(segment));
+    }
+
+    /**
+     * Test that compaction writes a snapshot and the data files, and drops old segments.
+     * Verifies the compacted state is recovered after a crash.
+     */
+    @Test
+    @DisplayName("Should compact the log into a snapshot")
+    void testCompaction() throws InterruptedException, IOException {
+        dao.close();
+        dao = new DaoMemoryImpl(storesFile, graphFile, 20, new MutationLog(logDir.toString(), MutationLog.Sync.INTERVAL, 1));
+        addStores(3);
+
+        for (int i = 0; i < 250 && DataFiles.readStores(storesFile).size() < 3; i++) {
+            Thread.sleep(20);
+        }
+
+        assertEquals(3, DataFiles.readStores(storesFile).size());
+        assertTrue(Files.exists(logDir.resolve("snapshot")));
+        dao = open(1L << 30);
+        assertEquals(3, dao.getAllStores().size());
+        try (Stream<Path> files = Files.list(logDir)) {
+            assertTrue(files.filter(file -> file.getFileName().toString().endsWith(".log")).count() <= 3);
+        }
+    }
+
+    /**
+     * Test that a clean close brings the data files up to date.
+     * Switching back to the file DAO must not see stale data.
+     */
+    @Test
+    @DisplayName("Should write the data files on close")
+    void testCloseWritesDataFiles() {
+        addStores(2);
+        dao.saveNode("A", 1.0, 2.0);
+        dao.close();
+
+        assertEquals(2, new DaoFileImpl(storesFile).getAllStores().size());
+        assertTrue(DataFiles.readGraph(graphFile).containsKey("nodes"));
+        dao = open(1L << 30);
+    }
+
+    /**
+     * Test validation: the sync policy and compaction threshold are required.
+     */
+    @Test
+    @DisplayName("Should throw exception for invalid log settings")
+    void testInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> new MutationLog(logDir.toString(), null, 1));
+        assertThrows(IllegalArgumentException.class, () -> new MutationLog(logDir.toString(), MutationLog.Sync.NEVER, 0));
+    }
+
+    private DaoMemoryImpl open(long compactAfterBytes) {
+        return new DaoMemoryImpl(storesFile, graphFile, 60_000,
+                new MutationLog(logDir.toString(), MutationLog.Sync.ALWAYS, compactAfterBytes));
+    }
+
+    private void addStores(int count) {
+        for (int i = 1; i <= count; i++) {
+            dao.addStore(new Store(0, "Store " + i, 1.0, 2.0, "A"));
+        }
+    }
+
+    private Path newestSegment() throws IOException {
+        try (Stream<Path> files = Files.list(logDir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log"))
+                    .max(Path::compareTo)
+                    .orElseThrow();
+        }
+    }
+
+    // Where each record starts: a record is its payload length, a checksum and the payload
+    private static List<Long> recordOffsets(Path segment) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(segment));
+        List<Long> offsets = new ArrayList<>();
+        while (data.remaining() >= 8) {
+            offsets.add((long) data.position());
+            int length = data.getInt();
+            data.position(data.position() + 4 + length);
+        }
+        return offsets;
+    }
+
+    private static void flipByte(Path file, long offset) throws IOException {
+        byte[] contents = Files.readAllBytes(file);
+        contents[(int) offset] ^= 1;
+        Files.write(file, contents);
+    }
+}
@@ -0,0 +1,167 @@
+package com.om.dao;
+
+import com.om.dm.Product;
+import com.om.dm.Store;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test suite for the product name index behind the DAOs' product lookups.
+ *
+ * Test Coverage:
+ * - Looking up product names ignoring case
+ * - Cheapest store selection and tie breaking
+ * - Re-indexing, removing and clearing stores
+ * - The DAOs keeping the index current as products and stores change
+ */
+@DisplayName("Product Index Tests")
+public class ProductIndexTest {
+
+    @TempDir
+    Path dir;
+
+    private ProductIndex index;
+
+    /**
+     * Start each test with an empty index.
+     */
+    @BeforeEach
+    void setUp() {
+        index = new ProductIndex();
+    }
+
+    /**
+     * Test that names differing only in case find the same stores.
+     */
+    @Test
+    @DisplayName("Should match product names ignoring case")
+    void testIgnoresCase() {
+        index.put(store(1, new Product(1, "Milk", 3.5)));
+        index.put(store(2, new Product(2, "MILK", 3.0)));
+
+        assertEquals(List.of(1, 2), List.copyOf(index.storesWith("milk").keySet()));
+        assertEquals(2, index.cheapest("mIlK"));
+    }
+
+    /**
+     * Test that the lowest store id wins when prices are equal.
+     */
+    @Test
+    @DisplayName("Should break price ties by lowest store id")
+    void testTiesGoToLowestId() {
+        index.put(store(5, new Product(1, "Milk", 3.0)));
+        index.put(store(2, new Product(2, "Milk", 3.0)));
+        index.put(store(9, new Product(3, "Milk", 3.0)));
+
+        assertEquals(2, index.cheapest("Milk"));
+    }
+
+    /**
+     * Test that a store's price is its first product with the name, as the scans found.
+     */
+    @Test
+    @DisplayName("Should index the first product with a name")
+    void testFirstProductSetsPrice() {
+        index.put(store(1, new Product(1, "Milk", 4.0), new Product(2, "milk", 1.0)));
+
+        assertEquals(4.0, index.storesWith("Milk").get(1));
+    }
+
+    /**
+     * Test that putting a store again replaces its entries.
+     * Verifies removed products are no longer found.
+     */
+    @Test
+    @DisplayName("Should re-index a store on put")
+    void testPutReplacesEntries() {
+        index.put(store(1, new Product(1, "Milk", 3.5), new Product(2, "Bread", 2.0)));
+
+        index.put(store(1, new Product(1, "Milk", 1.5)));
+
+        assertEquals(1.5, index.storesWith("Milk").get(1));
+        assertTrue(index.storesWith("Bread").isEmpty());
+        assertEquals(-1, index.cheapest("Bread"));
+    }
+
+    /**
+     * Test that removing and clearing drop stores from every lookup.
+     */
+    @Test
+    @DisplayName("Should drop stores on remove and clear")
+    void testRemoveAndClear() {
+        index.put(store(1, new Product(1, "Milk", 2.0)));
+        index.put(store(2, new Product(2, "Milk", 3.0)));
+
+        index.remove(1);
+
+        assertEquals(2, index.cheapest("Milk"));
+
+        index.clear();
+
+        assertTrue(index.storesWith("Milk").isEmpty());
+        assertTrue(index.storesWith(null).isEmpty());
+    }
+
+    /**
+     * Test that the in-memory DAO keeps its index current.
+     */
+    @Test
+    @DisplayName("Should stay current in the in-memory DAO")
+    void testMemoryDaoKeepsIndexCurrent() {
+        DaoMemoryImpl dao = new DaoMemoryImpl(dir.resolve("datasource.txt").toString(),
+                dir.resolve("graph.dat").toString(), 60_000, null);
+        try {
+            assertCheapestFollowsChanges(dao);
+        } finally {
+            dao.close();
+        }
+    }
+
+    /**
+     * Test that the file DAO keeps its index current.
+     */
+    @Test
+    @DisplayName("Should stay current in the file DAO")
+    void testFileDaoKeepsIndexCurrent() {
+        assertCheapestFollowsChanges(new DaoFileImpl(dir.resolve("datasource.txt").toString()));
+    }
+
+    // Runs update, remove and delete through dao, checking the cheapest store after each
+    private static void assertCheapestFollowsChanges(IDao dao) {
+        dao.addStore(new Store(0, "Store 1", 1.0, 2.0, "A"));
+        dao.addStore(new Store(0, "Store 2", 3.0, 4.0, "B"));
+        dao.addStore(new Store(0, "Store 3", 5.0, 6.0, "C"));
+        dao.addProductToStore(1, new Product(0, "Milk", 2.0));
+        dao.addProductToStore(2, new Product(0, "Milk", 3.0));
+        dao.addProductToStore(3, new Product(0, "Milk", 4.0));
+        assertEquals(1, dao.findCheapestStoreWithProduct("milk").getId());
+
+        int milk = dao.getProductsByStoreId(3).get(0).getId();
+        dao.updateProductInStore(3, new Product(milk, "Milk", 1.0));
+        assertEquals(3, dao.findCheapestStoreWithProduct("Milk").getId());
+
+        dao.removeProductFromStore(3, "MILK");
+        assertEquals(1, dao.findCheapestStoreWithProduct("Milk").getId());
+
+        dao.deleteStore(1);
+        assertEquals(2, dao.findCheapestStoreWithProduct("Milk").getId());
+
+        dao.deleteStore(2);
+        assertNull(dao.findCheapestStoreWithProduct("Milk"));
+    }
+
+    private static Store store(int id, Product... products) {
+        Store store = new Store(id, "Store " + id, 1.0, 2.0, "A");
+        for (Product product : products) {
+            store.addProduct(product);
+        }
+        return store;
+    }
+}
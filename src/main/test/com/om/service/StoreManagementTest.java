@@ -1,6 +1,7 @@
 package com.om.service;
 
 import com.om.algorithm.Edge;
+import com.om.dm.Page;
 import com.om.dm.Store;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -147,6 +148,78 @@ public class StoreManagementTest {
         });
     }
 
+    /**
+     * Test paging through all stores with a cursor.
+     * Verifies that pages follow ID order and the last page has no cursor.
+     */
+    @Test
+    @DisplayName("Should page through stores with a cursor")
+    void testGetStoresPage() {
+        for (int i = 1; i <= 5; i++) {
+            storeService.addStore("Store " + i, "A");
+        }
+
+        Page<Store> first = storeService.getStoresPage(null, 2);
+        assertEquals(List.of(1, 2), first.getItems().stream().map(Store::getId).toList());
+        assertTrue(first.hasNext());
+
+        Page<Store> second = storeService.getStoresPage(first.getNextCursor(), 2);
+        assertEquals(List.of(3, 4), second.getItems().stream().map(Store::getId).toList());
+
+        Page<Store> last = storeService.getStoresPage(second.getNextCursor(), 2);
+        assertEquals(List.of(5), last.getItems().stream().map(Store::getId).toList());
+        assertFalse(last.hasNext());
+    }
+
+    /**
+     * Test that a cursor stays valid when stores change between pages.
+     * Deleting a store already seen must not skip or repeat later stores.
+     */
+    @Test
+    @DisplayName("Should keep cursor stable when stores are deleted")
+    void testStoresPageStableAfterDelete() {
+        for (int i = 1; i <= 4; i++) {
+            storeService.addStore("Store " + i, "A");
+        }
+
+        Page<Store> first = storeService.getStoresPage(null, 2);
+        storeService.deleteStore(1);
+        storeService.addStore("Store 5", "B");
+
+        Page<Store> second = storeService.getStoresPage(first.getNextCursor(), 10);
+        assertEquals(List.of(3, 4, 5), second.getItems().stream().map(Store::getId).toList());
+    }
+
+    /**
+     * Test validation: malformed cursors and page sizes are rejected.
+     */
+    @Test
+    @DisplayName("Should throw exception for invalid cursor or page size")
+    void testStoresPageValidation() {
+        assertThrows(IllegalArgumentException.class, () -> storeService.getStoresPage("not-a-cursor", 10));
+        assertThrows(IllegalArgumentException.class, () -> storeService.getStoresPage(null, 0));
+    }
+
+    /**
+     * Test that committed store changes are published to change listeners.
+     * A rejected mutation must not publish anything.
+     */
+    @Test
+    @DisplayName("Should publish change events for committed store changes")
+    void testStoreChangeEvents() {
+        List<ChangeEvent> events = new java.util.ArrayList<>();
+        storeService.addChangeListener(events::add);
+
+        storeService.addStore("Store 1", "A");
+        assertThrows(IllegalArgumentException.class, () -> storeService.addStore("Nowhere", "Z"));
+        storeService.deleteStore(1);
+
+        assertEquals(List.of(ChangeEvent.Type.STORE_ADDED, ChangeEvent.Type.STORE_DELETED),
+                events.stream().map(ChangeEvent::type).toList());
+        assertEquals(1, events.get(0).storeId());
+        assertEquals("Store 1", events.get(0).storeName());
+    }
+
     /**
      * Test DAO implementation for this test class.
      * Provides a mock data access layer with predefined test data and store management.
@@ -0,0 +1,203 @@
+package com.om.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test suite for sharing one computation among identical concurrent calls.
+ *
+ * Test Coverage:
+ * - Concurrent callers for one key sharing a single computation
+ * - Failures reaching every caller of the computation
+ * - A new computation once the previous one finished
+ * - Waiters outliving a computing caller that ran out of time
+ * - Waiters giving up on their own deadline
+ */
+@DisplayName("Single Flight Tests")
+public class SingleFlightTest {
+
+    private SingleFlight<String, String> flight;
+    private ExecutorService executor;
+
+    /**
+     * Create an empty SingleFlight and a thread per caller before each test.
+     */
+    @BeforeEach
+    void setUp() {
+        flight = new SingleFlight<>();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Test that a caller arriving during a computation gets its result.
+     * Verifies the computation runs only once.
+     */
+    @Test
+    @DisplayName("Should share one computation among concurrent callers")
+    void testSharesComputation() throws Exception {
+        AtomicInteger computations = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> leader = executor.submit(() -> flight.run("key", () -> {
+            computations.incrementAndGet();
+            started.countDown();
+            await(release);
+            return "value";
+        }));
+        started.await();
+        Future<String> waiter = executor.submit(() -> flight.run("key", () -> {
+            computations.incrementAndGet();
+            return "other";
+        }));
+        Thread.sleep(100);
+        release.countDown();
+
+        assertEquals("value", leader.get(5, TimeUnit.SECONDS));
+        assertEquals("value", waiter.get(5, TimeUnit.SECONDS));
+        assertEquals(1, computations.get());
+    }
+
+    /**
+     * Test that a waiter gets the exception the computation threw.
+     */
+    @Test
+    @DisplayName("Should pass a failure to waiting callers")
+    void testSharesFailure() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> leader = executor.submit(() -> flight.run("key", () -> {
+            started.countDown();
+            await(release);
+            throw new IllegalArgumentException("Store not found");
+        }));
+        started.await();
+        Future<String> waiter = executor.submit(() -> flight.run("key", () -> "other"));
+        Thread.sleep(100);
+        release.countDown();
+
+        assertCause(IllegalArgumentException.class, leader);
+        assertCause(IllegalArgumentException.class, waiter);
+    }
+
+    /**
+     * Test that nothing is cached once a computation finished.
+     */
+    @Test
+    @DisplayName("Should compute again after a computation finished")
+    void testDoesNotCache() {
+        assertEquals("first", flight.run("key", () -> "first"));
+        assertEquals("second", flight.run("key", () -> "second"));
+    }
+
+    /**
+     * Test that a waiter without a deadline computes the value itself when the
+     * computing caller runs out of time, rather than taking on its timeout.
+     */
+    @Test
+    @DisplayName("Should retry for a waiter without a deadline when the leader times out")
+    void testWaiterWithoutDeadlineOutlivesLeader() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        Future<String> leader = executor.submit(() -> {
+            try (Deadline.Scope scope = Deadline.bind(Deadline.after(System.nanoTime(), 200))) {
+                return flight.run("key", () -> {
+                    started.countDown();
+                    while (true) {
+                        Deadline.check();
+                        Thread.onSpinWait();
+                    }
+                });
+            }
+        });
+        started.await();
+        Future<String> waiter = executor.submit(() -> flight.run("key", () -> "waiter"));
+
+        assertCause(DeadlineExceededException.class, leader);
+        assertEquals("waiter", waiter.get(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test that a waiter with time left computes the value itself when the
+     * computing caller's shorter deadline runs out.
+     */
+    @Test
+    @DisplayName("Should retry for a waiter with a longer deadline when the leader times out")
+    void testWaiterWithLongerDeadlineOutlivesLeader() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        Future<String> leader = executor.submit(() -> {
+            try (Deadline.Scope scope = Deadline.bind(Deadline.after(System.nanoTime(), 200))) {
+                return flight.run("key", () -> {
+                    started.countDown();
+                    while (true) {
+                        Deadline.check();
+                        Thread.onSpinWait();
+                    }
+                });
+            }
+        });
+        started.await();
+        Future<String> waiter = executor.submit(() -> {
+            try (Deadline.Scope scope = Deadline.bind(Deadline.after(System.nanoTime(), 10_000))) {
+                return flight.run("key", () -> "waiter");
+            }
+        });
+
+        assertCause(DeadlineExceededException.class, leader);
+        assertEquals("waiter", waiter.get(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test that a waiter stops waiting when its own deadline passes.
+     */
+    @Test
+    @DisplayName("Should time out a waiter on its own deadline")
+    void testWaiterTimesOut() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> leader = executor.submit(() -> flight.run("key", () -> {
+            started.countDown();
+            await(release);
+            return "value";
+        }));
+        started.await();
+        Future<String> waiter = executor.submit(() -> {
+            try (Deadline.Scope scope = Deadline.bind(Deadline.after(System.nanoTime(), 100))) {
+                return flight.run("key", () -> "other");
+            }
+        });
+
+        assertCause(DeadlineExceededException.class, waiter);
+        release.countDown();
+        assertEquals("value", leader.get(5, TimeUnit.SECONDS));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void assertCause(Class<? extends Throwable> expected, Future<String> future) {
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(expected, e.getCause());
+    }
+}